@@ -0,0 +1,145 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the connect, query and write paths of the driver against an in-process Hot Rod server.
+ * Run with {@code mvn -Pbenchmark verify}; thread counts and row counts are picked with the usual
+ * JMH options, for example {@code -Djmh.args="-t 8 -p rowCount=100000"}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DriverBenchmark {
+    static final int PORT = 11322;
+    static final String URL = "jdbc:infinispan://127.0.0.1:" + PORT + "/default;schema=src/test/resources/tables.ddl";
+
+    @State(Scope.Benchmark)
+    public static class ServerState {
+        @Param({"100", "10000"})
+        public int rowCount;
+
+        HotRodTestServer server;
+        Driver driver = new Driver();
+        AtomicInteger nextKey = new AtomicInteger();
+
+        @Setup(Level.Trial)
+        public void start() throws SQLException {
+            this.server = new HotRodTestServer(PORT);
+            try (Connection c = this.driver.connect(URL, new Properties())) {
+                Statement statement = c.createStatement();
+                statement.execute("DELETE FROM G1");
+                PreparedStatement insert = c.prepareStatement("insert into G1 (e1, e2, e3) values (?, ?, ?)");
+                for (int i = 0; i < this.rowCount; i++) {
+                    insert.setInt(1, i);
+                    insert.setString(2, String.valueOf(i));
+                    insert.setFloat(3, i);
+                    insert.executeUpdate();
+                }
+            }
+            this.nextKey.set(this.rowCount);
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() {
+            this.server.stop();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ConnectionState {
+        Connection connection;
+        PreparedStatement selectByKey;
+        PreparedStatement insert;
+        PreparedStatement delete;
+
+        @Setup(Level.Trial)
+        public void open(ServerState state) throws SQLException {
+            this.connection = state.driver.connect(URL, new Properties());
+            this.selectByKey = this.connection.prepareStatement("SELECT e1, e2, e3 FROM G1 WHERE e1 = ?");
+            this.insert = this.connection.prepareStatement("insert into G1 (e1, e2, e3) values (?, ?, ?)");
+            this.delete = this.connection.prepareStatement("DELETE FROM G1 WHERE e1 = ?");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            this.connection.close();
+        }
+    }
+
+    @Benchmark
+    public void connect(ServerState state) throws SQLException {
+        state.driver.connect(URL, new Properties()).close();
+    }
+
+    @Benchmark
+    public void selectByKey(ServerState state, ConnectionState conn, Blackhole bh) throws SQLException {
+        conn.selectByKey.setInt(1, ThreadLocalRandom.current().nextInt(state.rowCount));
+        try (ResultSet rs = conn.selectByKey.executeQuery()) {
+            while (rs.next()) {
+                bh.consume(rs.getObject(2));
+            }
+        }
+    }
+
+    @Benchmark
+    public void fullScan(ConnectionState conn, Blackhole bh) throws SQLException {
+        try (Statement statement = conn.connection.createStatement();
+                ResultSet rs = statement.executeQuery("SELECT e1, e2, e3 FROM G1")) {
+            while (rs.next()) {
+                bh.consume(rs.getObject(1));
+            }
+        }
+    }
+
+    @Benchmark
+    public int insertDelete(ServerState state, ConnectionState conn) throws SQLException {
+        int key = state.nextKey.getAndIncrement();
+        conn.insert.setInt(1, key);
+        conn.insert.setString(2, String.valueOf(key));
+        conn.insert.setFloat(3, key);
+        int count = conn.insert.executeUpdate();
+        conn.delete.setInt(1, key);
+        return count + conn.delete.executeUpdate();
+    }
+}
@@ -18,6 +18,22 @@
 package io.infinispan.data;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.resource.ResourceException;
 import javax.security.auth.callback.Callback;
@@ -27,8 +43,16 @@ import javax.transaction.TransactionManager;
 
 import org.infinispan.client.hotrod.RemoteCache;
 import org.infinispan.client.hotrod.RemoteCacheManager;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryModified;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryRemoved;
+import org.infinispan.client.hotrod.annotation.ClientCacheFailover;
+import org.infinispan.client.hotrod.annotation.ClientListener;
+import org.infinispan.client.hotrod.configuration.ClientIntelligence;
 import org.infinispan.client.hotrod.configuration.ConfigurationBuilder;
 import org.infinispan.client.hotrod.configuration.TransactionMode;
+import org.infinispan.client.hotrod.event.ClientCacheEntryModifiedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryRemovedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheFailoverEvent;
 import org.infinispan.client.hotrod.marshall.ProtoStreamMarshaller;
 import org.infinispan.commons.marshall.jboss.GenericJBossMarshaller;
 import org.infinispan.commons.tx.lookup.TransactionManagerLookup;
@@ -42,10 +66,14 @@ import org.teiid.translator.TranslatorException;
 
 public class InfinispanConnectionFactory extends BaseConnectionFactory {
     public static final BundleUtil UTIL = BundleUtil.getBundleUtil(InfinispanConnectionFactory.class);
+    // hashes of the protobuf files parsed into each serialization context, by file name
+    private static final Map<SerializationContext, Map<String, String>> PARSED_PROTOBUFS = new WeakHashMap<>();
     private static final long serialVersionUID = -4791974803005018658L;
 
     private String remoteServerList;
     private String cacheName;
+    private String clientIntelligence;
+    private String balancingStrategy;
 
     // security
     private final static String[] saslAllowed = {"CRAM-MD5", "DIGEST-MD5", "PLAIN"};
@@ -65,6 +93,20 @@ public class InfinispanConnectionFactory extends BaseConnectionFactory {
     private RemoteCacheManager cacheManager;
     private RemoteCacheManager scriptCacheManager;
     private SerializationContext ctx;
+    private int maxTaskThreads = 8;
+    private NearCache.Mode nearCacheMode = NearCache.Mode.DISABLED;
+    private int nearCacheMaxEntries = 10000;
+    private NearCache.EvictionPolicy nearCacheEvictionPolicy = NearCache.EvictionPolicy.LRU;
+    private NearCache nearCache;
+    private List<Object> clientListeners = new ArrayList<>();
+    private ExecutorService taskExecutor;
+    private ConcurrentHashMap<String, String> registeredScripts = new ConcurrentHashMap<>();
+    // contents of the protobuf files registered through this factory, by file name
+    private ConcurrentHashMap<String, String> protobufFiles = new ConcurrentHashMap<>();
+    // hashes of the protobuf files this factory found registered on the servers, by file name
+    private ConcurrentHashMap<String, String> serverProtobufs = new ConcurrentHashMap<>();
+    private ServerProtobufListener serverProtobufListener;
+    private boolean closed;
 
 
     public String getRemoteServerList() {
@@ -79,21 +121,139 @@ public class InfinispanConnectionFactory extends BaseConnectionFactory {
         return cacheName;
     }
 
+    public String getClientIntelligence() {
+        return clientIntelligence;
+    }
+
+    /**
+     * @param clientIntelligence "BASIC", "TOPOLOGY_AWARE" or "HASH_DISTRIBUTION_AWARE", the default, which
+     * sends key based operations straight to the node owning the key
+     */
+    public void setClientIntelligence(String clientIntelligence) {
+        this.clientIntelligence = clientIntelligence;
+    }
+
+    public String getBalancingStrategy() {
+        return balancingStrategy;
+    }
+
+    /**
+     * @param balancingStrategy class name of the FailoverRequestBalancingStrategy that picks the server of
+     * operations without a key, like queries
+     */
+    public void setBalancingStrategy(String balancingStrategy) {
+        this.balancingStrategy = balancingStrategy;
+    }
+
     public void setCacheName(String cacheName) {
         this.cacheName = cacheName;
     }
 
     @Override
-    public InfinispanConnectionImpl getConnection() throws ResourceException {
+    public synchronized InfinispanConnectionImpl getConnection() throws ResourceException {
+        checkOpen();
+        if (this.cacheManager == null) {
+            buildCacheManager();
+        }
+        if (this.nearCacheMode == NearCache.Mode.INVALIDATED && this.nearCache == null) {
+            this.nearCache = new NearCache(this.cacheManager.getCache(this.cacheName), this.nearCacheMaxEntries,
+                    this.nearCacheEvictionPolicy);
+            this.nearCache.start();
+        }
+
+		return new InfinispanConnectionImpl(this.cacheManager, cacheName, this.ctx, this, cacheTemplate);
+    }
+
+    /**
+     * Registers a Hot Rod client listener on the cache of this factory, it is removed when the factory is
+     * closed.
+     */
+    public synchronized void addClientListener(Object listener) throws ResourceException {
+        checkOpen();
         if (this.cacheManager == null) {
             buildCacheManager();
         }
+        this.cacheManager.getCache(this.cacheName).addClientListener(listener);
+        this.clientListeners.add(listener);
+    }
+
+    /**
+     * The script manager is only needed for server tasks, so it is created on first use.
+     */
+    public synchronized RemoteCacheManager getScriptCacheManager() throws ResourceException {
+        checkOpen();
         if (this.scriptCacheManager == null) {
             buildScriptCacheManager();
         }
+        return this.scriptCacheManager;
+    }
+
+    /**
+     * @return executor used to run server tasks asynchronously, created on first use
+     */
+    public synchronized ExecutorService getTaskExecutor() {
+        if (this.taskExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(this.maxTaskThreads, this.maxTaskThreads, 60,
+                    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        private AtomicInteger count = new AtomicInteger();
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "infinispan-task-" + cacheName + "-" + count.incrementAndGet()); //$NON-NLS-1$ //$NON-NLS-2$
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            this.taskExecutor = executor;
+        }
+        return this.taskExecutor;
+    }
+
+    /**
+     * @return the near cache of this factory's cache, null when disabled or no connection was made yet
+     */
+    public NearCache getNearCache() {
+        return this.nearCache;
+    }
+
+    public NearCache.Mode getNearCacheMode() {
+        return nearCacheMode;
+    }
+
+    public void setNearCacheMode(NearCache.Mode nearCacheMode) {
+        this.nearCacheMode = nearCacheMode;
+    }
+
+    public int getNearCacheMaxEntries() {
+        return nearCacheMaxEntries;
+    }
+
+    public void setNearCacheMaxEntries(int nearCacheMaxEntries) {
+        this.nearCacheMaxEntries = nearCacheMaxEntries;
+    }
+
+    public NearCache.EvictionPolicy getNearCacheEvictionPolicy() {
+        return nearCacheEvictionPolicy;
+    }
+
+    public void setNearCacheEvictionPolicy(NearCache.EvictionPolicy nearCacheEvictionPolicy) {
+        this.nearCacheEvictionPolicy = nearCacheEvictionPolicy;
+    }
 
-		return new InfinispanConnectionImpl(this.cacheManager, this.scriptCacheManager, cacheName, this.ctx, this,
-				cacheTemplate);
+    public int getMaxTaskThreads() {
+        return maxTaskThreads;
+    }
+
+    public void setMaxTaskThreads(int maxTaskThreads) {
+        this.maxTaskThreads = maxTaskThreads;
+    }
+
+    boolean isScriptRegistered(String scriptName, String script) {
+        return script.equals(this.registeredScripts.get(scriptName));
+    }
+
+    void scriptRegistered(String scriptName, String script) {
+        this.registeredScripts.put(scriptName, script);
     }
 
     public String getSaslMechanism() {
@@ -180,54 +340,127 @@ public class InfinispanConnectionFactory extends BaseConnectionFactory {
         this.txnManager = transactionManager;
     }
 
+    private List<Object> managerKey(String marshaller) {
+        return Arrays.asList(marshaller, remoteServerList, clientIntelligence, balancingStrategy, saslMechanism,
+                userName, password, authenticationRealm,
+                authenticationServerName, trustStoreFileName, trustStorePassword, keyStoreFileName,
+                keyStorePassword, txnManager);
+    }
+
+    private void handleRouting(ConfigurationBuilder builder) throws ResourceException {
+        if (this.clientIntelligence != null) {
+            try {
+                builder.clientIntelligence(ClientIntelligence.valueOf(this.clientIntelligence.toUpperCase()));
+            } catch (IllegalArgumentException e) {
+                throw new ResourceException(UTIL.getString("invalid_client_intelligence", this.clientIntelligence));
+            }
+        }
+        if (this.balancingStrategy != null) {
+            builder.balancingStrategy(this.balancingStrategy);
+        }
+    }
+
     private void buildCacheManager() throws ResourceException {
-        try {
-            ConfigurationBuilder builder = new ConfigurationBuilder();
-            builder.addServers(remoteServerList);
-            builder.marshaller(new ProtoStreamMarshaller());
+        // note this object is expensive, so it is shared with all the factories that use the same
+        // servers and settings.
+        this.cacheManager = RemoteCacheManagerRegistry.getInstance().acquire(managerKey("protostream"), () -> {
+            try {
+                ConfigurationBuilder builder = new ConfigurationBuilder();
+                builder.addServers(remoteServerList);
+                handleRouting(builder);
+                builder.marshaller(new ProtoStreamMarshaller());
+
+                handleSecurity(builder);
+
+                if (this.txnManager != null) {
+                    builder.transaction().transactionManagerLookup(new TransactionManagerLookup() {
+                        @Override
+                        public TransactionManager getTransactionManager() throws Exception {
+                            return txnManager;
+                        }
+                    }).transactionMode(TransactionMode.NON_XA);
+                }
 
-            handleSecurity(builder);
+                RemoteCacheManager manager = new RemoteCacheManager(builder.build());
+                manager.start();
+                return manager;
+            } catch (ResourceException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new ResourceException(e);
+            }
+        });
+        this.ctx = ProtoStreamMarshaller.getSerializationContext(this.cacheManager);
+    }
 
-            if (this.txnManager != null) {
-                builder.transaction().transactionManagerLookup(new TransactionManagerLookup() {
-                    @Override
-                    public TransactionManager getTransactionManager() throws Exception {
-                        return txnManager;
-                    }
-                }).transactionMode(TransactionMode.NON_XA);
+    private void buildScriptCacheManager() throws ResourceException {
+        this.scriptCacheManager = RemoteCacheManagerRegistry.getInstance().acquire(managerKey("jboss"), () -> {
+            try {
+                ConfigurationBuilder builder = new ConfigurationBuilder();
+                builder.addServers(remoteServerList);
+                handleRouting(builder);
+                builder.marshaller(new GenericJBossMarshaller());
+                handleSecurity(builder);
+
+                RemoteCacheManager manager = new RemoteCacheManager(builder.build());
+                manager.start();
+                return manager;
+            } catch (ResourceException e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new ResourceException(e);
             }
+        });
+    }
 
-            // note this object is expensive, so there needs to only one
-            // instance for the JVM, in this case one per RA instance.
-            this.cacheManager = new RemoteCacheManager(builder.build());
-
-            // register default marshellers
-            /*
-            SerializationContext ctx = ProtoStreamMarshaller.getSerializationContext(this.cacheManager);
-            FileDescriptorSource fds = new FileDescriptorSource();
-            ctx.registerProtoFiles(fds);
-            */
-            this.cacheManager.start();
-            this.ctx = ProtoStreamMarshaller.getSerializationContext(this.cacheManager);
-        } catch (Throwable e) {
-            throw new ResourceException(e);
+    /**
+     * A closed factory no longer holds its shared cache managers, so it does not open them again.
+     */
+    private void checkOpen() throws ResourceException {
+        if (this.closed) {
+            throw new ResourceException(UTIL.getString("factory_closed", this.cacheName));
         }
     }
 
-    private void buildScriptCacheManager() throws ResourceException {
-        try {
-            ConfigurationBuilder builder = new ConfigurationBuilder();
-            builder.addServers(remoteServerList);
-            builder.marshaller(new GenericJBossMarshaller());
-            handleSecurity(builder);
-
-            // note this object is expensive, so there needs to only one
-            // instance for the JVM, in this case one per RA instance.
-            this.scriptCacheManager = new RemoteCacheManager(builder.build());
-            this.scriptCacheManager.start();
-        } catch (Throwable e) {
-            throw new ResourceException(e);
+    /**
+     * Releases the shared cache managers used by this factory, it can not be used afterwards.
+     */
+    public synchronized void close() {
+        this.closed = true;
+        if (this.nearCache != null) {
+            this.nearCache.stop();
+            this.nearCache = null;
         }
+        if (!this.clientListeners.isEmpty()) {
+            RemoteCache<Object, Object> cache = this.cacheManager.getCache(this.cacheName);
+            for (Object listener : this.clientListeners) {
+                cache.removeClientListener(listener);
+            }
+            this.clientListeners.clear();
+        }
+        if (this.serverProtobufListener != null) {
+            RemoteCache<String, String> metadataCache = this.cacheManager
+                    .getCache(ProtobufMetadataManagerConstants.PROTOBUF_METADATA_CACHE_NAME);
+            if (metadataCache != null) {
+                metadataCache.removeClientListener(this.serverProtobufListener);
+            }
+            this.serverProtobufListener = null;
+        }
+        if (this.cacheManager != null) {
+            RemoteCacheManagerRegistry.getInstance().release(this.cacheManager);
+            this.cacheManager = null;
+            this.ctx = null;
+        }
+        if (this.scriptCacheManager != null) {
+            RemoteCacheManagerRegistry.getInstance().release(this.scriptCacheManager);
+            this.scriptCacheManager = null;
+        }
+        if (this.taskExecutor != null) {
+            this.taskExecutor.shutdown();
+            this.taskExecutor = null;
+        }
+        this.registeredScripts.clear();
+        this.serverProtobufs.clear();
     }
 
     public void handleSecurity(ConfigurationBuilder builder) throws ResourceException {
@@ -289,14 +522,35 @@ public class InfinispanConnectionFactory extends BaseConnectionFactory {
     public void registerProtobufFile(ProtobufResource protobuf) throws TranslatorException {
         try {
             if (protobuf != null) {
-                // client side
-                this.ctx.registerProtoFiles(FileDescriptorSource.fromString(protobuf.getIdentifier(), protobuf.getContents()));
+                this.protobufFiles.put(protobuf.getIdentifier(), protobuf.getContents());
+                String hash = contentHash(protobuf.getContents());
+
+                // client side, parsed once per serialization context, which is shared by the factories of
+                // the same servers
+                Map<String, String> parsed;
+                synchronized (PARSED_PROTOBUFS) {
+                    parsed = PARSED_PROTOBUFS.computeIfAbsent(this.ctx, c -> new ConcurrentHashMap<>());
+                }
+                synchronized (parsed) {
+                    if (!hash.equals(parsed.get(protobuf.getIdentifier()))) {
+                        this.ctx.registerProtoFiles(FileDescriptorSource.fromString(protobuf.getIdentifier(), protobuf.getContents()));
+                        parsed.put(protobuf.getIdentifier(), hash);
+                    }
+                }
 
-                // server side
+                // server side, only written when its content changed, as each write re-indexes the schema.
+                // The files found on the servers are remembered until the servers change them, or the
+                // client fails over, as a server may have been restarted without them.
+                if (hash.equals(this.serverProtobufs.get(protobuf.getIdentifier()))) {
+                    return;
+                }
                 RemoteCache<String, String> metadataCache = this.cacheManager
                         .getCache(ProtobufMetadataManagerConstants.PROTOBUF_METADATA_CACHE_NAME);
                 if (metadataCache != null) {
-                    metadataCache.put(protobuf.getIdentifier(), protobuf.getContents());
+                    listenToServerProtobufs(metadataCache);
+                    if (!protobuf.getContents().equals(metadataCache.get(protobuf.getIdentifier()))) {
+                        metadataCache.put(protobuf.getIdentifier(), protobuf.getContents());
+                    }
                     String errors = metadataCache.get(ProtobufMetadataManagerConstants.ERRORS_KEY_SUFFIX);
                     // ispn removes leading '/' in a string in the results
                     String protoSchemaIdent = (protobuf.getIdentifier().startsWith("/"))
@@ -305,6 +559,7 @@ public class InfinispanConnectionFactory extends BaseConnectionFactory {
                     if (errors != null && isProtoSchemaInErrors(protoSchemaIdent, errors)) {
                        throw new TranslatorException(InfinispanConnectionFactory.UTIL.getString("proto_error", errors));
                     }
+                    this.serverProtobufs.put(protobuf.getIdentifier(), hash);
                 }
             } else {
                 throw new TranslatorException(InfinispanConnectionFactory.UTIL.getString("no_protobuf"));
@@ -314,6 +569,65 @@ public class InfinispanConnectionFactory extends BaseConnectionFactory {
         }
     }
 
+    private synchronized void listenToServerProtobufs(RemoteCache<String, String> metadataCache) {
+        if (this.serverProtobufListener == null) {
+            ServerProtobufListener listener = new ServerProtobufListener(this.serverProtobufs);
+            metadataCache.addClientListener(listener);
+            this.serverProtobufListener = listener;
+        }
+    }
+
+    /**
+     * Forgets the protobuf files found on the servers when they are changed there, or when the client fails
+     * over, as events may have been missed.
+     */
+    @ClientListener
+    static class ServerProtobufListener {
+        private final ConcurrentHashMap<String, String> serverProtobufs;
+
+        ServerProtobufListener(ConcurrentHashMap<String, String> serverProtobufs) {
+            this.serverProtobufs = serverProtobufs;
+        }
+
+        @ClientCacheEntryModified
+        public void entryModified(ClientCacheEntryModifiedEvent<String> event) {
+            this.serverProtobufs.remove(event.getKey());
+        }
+
+        @ClientCacheEntryRemoved
+        public void entryRemoved(ClientCacheEntryRemovedEvent<String> event) {
+            this.serverProtobufs.remove(event.getKey());
+        }
+
+        @ClientCacheFailover
+        public void failover(ClientCacheFailoverEvent event) {
+            this.serverProtobufs.clear();
+        }
+    }
+
+    /**
+     * @return the contents of the protobuf files registered through this factory, by file name
+     */
+    public Map<String, String> getProtobufFiles() {
+        return Collections.unmodifiableMap(this.protobufFiles);
+    }
+
+    /**
+     * @return the hex encoded SHA-256 of the content
+     */
+    public static String contentHash(String content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)); //$NON-NLS-1$
+            StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
     private boolean isProtoSchemaInErrors(String ident, String errors) {
         for (String s : errors.split("\n")) {
             if (s.trim().startsWith(ident)) {
@@ -19,18 +19,22 @@
 package io.infinispan.data;
 
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import javax.resource.ResourceException;
 
 import org.infinispan.client.hotrod.RemoteCache;
 import org.infinispan.client.hotrod.RemoteCacheManager;
+import org.infinispan.client.hotrod.exceptions.HotRodClientException;
 import org.infinispan.commons.api.BasicCache;
 import org.infinispan.commons.api.CacheContainerAdmin;
 import org.infinispan.protostream.BaseMarshaller;
 import org.infinispan.protostream.SerializationContext;
-import org.infinispan.protostream.SerializationContext.MarshallerProvider;
 import org.teiid.infinispan.api.InfinispanConnection;
 import org.teiid.infinispan.api.InfinispanDocument;
 import org.teiid.infinispan.api.ProtobufResource;
@@ -44,24 +48,23 @@ public class InfinispanConnectionImpl extends BasicConnection implements Infinis
 
     private BasicCache<?, ?> defaultCache;
     private SerializationContext ctx;
-    private TeiidMarshallerProvider marshallerProvider = new TeiidMarshallerProvider();
+    private TeiidMarshallerProvider marshallerProvider;
+    private List<BaseMarshaller<?>> marshallers = new CopyOnWriteArrayList<>();
     private InfinispanConnectionFactory icf;
-    private RemoteCacheManager scriptManager;
     private String cacheTemplate;
 
-	public InfinispanConnectionImpl(RemoteCacheManager manager, RemoteCacheManager scriptManager, String cacheName,
-			SerializationContext ctx, InfinispanConnectionFactory icf, String cacheTemplate) throws ResourceException {
+	public InfinispanConnectionImpl(RemoteCacheManager manager, String cacheName, SerializationContext ctx,
+			InfinispanConnectionFactory icf, String cacheTemplate) throws ResourceException {
         this.cacheManager = manager;
         this.cacheName = cacheName;
         this.ctx = ctx;
-        this.ctx.registerMarshallerProvider(this.marshallerProvider);
+        this.marshallerProvider = TeiidMarshallerProvider.forContext(ctx);
         this.icf = icf;
         try {
             this.defaultCache = this.cacheManager.getCache(this.cacheName);
         } catch (Throwable t) {
             throw new ResourceException(t);
         }
-        this.scriptManager = scriptManager;
         this.cacheTemplate = cacheTemplate;
     }
 
@@ -72,9 +75,11 @@ public class InfinispanConnectionImpl extends BasicConnection implements Infinis
 
     @Override
     public void close() throws ResourceException {
-        // do not want to close on per cache basis
-        // TODO: what needs to be done here?
-        this.ctx.unregisterMarshallerProvider(this.marshallerProvider);
+        // do not want to close on per cache basis, only drop what this connection registered
+        for (BaseMarshaller<?> marshaller : this.marshallers) {
+            this.marshallerProvider.removeMarsheller(marshaller);
+        }
+        this.marshallers.clear();
     }
 
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -88,62 +93,119 @@ public class InfinispanConnectionImpl extends BasicConnection implements Infinis
     public <K, V> BasicCache<K, V> getCache(String cacheName, boolean createIfNotExists) throws TranslatorException{
     	RemoteCache<Object, Object> cache = cacheManager.getCache(cacheName);
     	if (cache == null && createIfNotExists) {
-	        cacheManager.administration().createCache(cacheName, this.cacheTemplate).withFlags();
-	        cache = cacheManager.administration().withFlags(CacheContainerAdmin.AdminFlag.PERMANENT).createCache(cacheName, this.cacheTemplate);
+	        try {
+	            cache = cacheManager.administration().withFlags(CacheContainerAdmin.AdminFlag.PERMANENT).createCache(cacheName, this.cacheTemplate);
+	        } catch (HotRodClientException e) {
+	            // created by another client in the meantime
+	            cache = cacheManager.getCache(cacheName);
+	            if (cache == null) {
+	                throw new TranslatorException(e);
+	            }
+	        }
     	}
     	return (BasicCache<K,V>)cache;
     }
 
+    public InfinispanConnectionFactory getConnectionFactory() {
+        return this.icf;
+    }
+
+    public NearCache getNearCache() {
+        return this.icf.getNearCache();
+    }
+
+    /**
+     * Primary key lookup on the default cache, served from the near cache when one is configured.
+     */
+    @SuppressWarnings("unchecked")
+    public Object get(Object key) {
+        NearCache nearCache = this.icf.getNearCache();
+        if (nearCache == null) {
+            return ((BasicCache<Object, Object>) this.defaultCache).get(key);
+        }
+        return nearCache.get(key);
+    }
+
+    /**
+     * Primary key lookup of several keys on the default cache in a single remote call for the keys that are
+     * not in the near cache.
+     */
+    @SuppressWarnings("unchecked")
+    public Map<Object, Object> getAll(Set<Object> keys) {
+        RemoteCache<Object, Object> cache = (RemoteCache<Object, Object>) this.defaultCache;
+        NearCache nearCache = this.icf.getNearCache();
+        if (nearCache == null) {
+            return cache.getAll(keys);
+        }
+        return nearCache.getAll(keys, missing -> cache.getAll(missing));
+    }
+
     @Override
     public void registerMarshaller(BaseMarshaller<InfinispanDocument> marshaller) throws TranslatorException {
-        marshallerProvider.setMarsheller(marshaller);
+        BaseMarshaller<InfinispanDocument> projected = ProjectingMarshaller.project(marshaller);
+        marshallerProvider.setMarsheller(projected);
+        this.marshallers.add(projected);
     }
 
     @Override
     public void unRegisterMarshaller(BaseMarshaller<InfinispanDocument> marshaller) throws TranslatorException {
-        marshallerProvider.removeMarsheller(marshaller);
-    }
-
-    static class TeiidMarshallerProvider implements MarshallerProvider {
-        private HashMap<String, BaseMarshaller<?>> context = new HashMap<>();
-        private HashMap<Class<?>, BaseMarshaller<?>> contextByClass = new HashMap<>();
-
-        public void setMarsheller(BaseMarshaller<?> marshaller) {
-            synchronized (context) {
-                if (context.get(marshaller.getTypeName()) != null) {
-                    throw new IllegalStateException("connection can not be shred with multiple threads");
-                }
-                context.put(marshaller.getTypeName(), marshaller);
-                contextByClass.put(marshaller.getJavaClass(), marshaller);
+        // the registered marshaller may be a projection of the given one
+        for (BaseMarshaller<?> registered : this.marshallers) {
+            if (ProjectingMarshaller.full(registered) == marshaller) {
+                marshallerProvider.removeMarsheller(registered);
+                this.marshallers.remove(registered);
+                return;
             }
         }
-        public void removeMarsheller(BaseMarshaller<?> marshaller) {
-            synchronized (context) {
-                context.remove(marshaller.getTypeName(), marshaller);
-                contextByClass.remove(marshaller.getJavaClass(), marshaller);
-            }
-        }
-        @Override
-        public BaseMarshaller<?> getMarshaller(String typeName) {
-            return context.get(typeName);
-        }
-        @Override
-        public BaseMarshaller<?> getMarshaller(Class<?> javaClass) {
-            return contextByClass.get(javaClass);
-        }
     }
 
+	private RemoteCacheManager getScriptManager() {
+		try {
+			return this.icf.getScriptCacheManager();
+		} catch (ResourceException e) {
+			throw new HotRodClientException(e);
+		}
+	}
+
 	@Override
 	public <T> T execute(String scriptName, Map<String, ?> params) {
-		return scriptManager.getCache().execute(scriptName, params);
+		return getScriptManager().getCache().execute(scriptName, params);
+	}
+
+	/**
+	 * Executes the server task without blocking the caller, so that many executions can be in flight over
+	 * the same connection.
+	 */
+	public <T> CompletableFuture<T> executeAsync(String scriptName, Map<String, ?> params) {
+		return CompletableFuture.supplyAsync(() -> execute(scriptName, params), this.icf.getTaskExecutor());
+	}
+
+	/**
+	 * Submits one execution of the server task per parameter map and completes once all of them have
+	 * completed, with the results in the order of the parameters.
+	 */
+	public <T> CompletableFuture<List<T>> executeAll(String scriptName, List<? extends Map<String, ?>> params) {
+		List<CompletableFuture<T>> futures = new ArrayList<>(params.size());
+		for (Map<String, ?> p : params) {
+			futures.add(executeAsync(scriptName, p));
+		}
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).thenApply(v -> {
+			List<T> results = new ArrayList<>(futures.size());
+			for (CompletableFuture<T> f : futures) {
+				results.add(f.join());
+			}
+			return results;
+		});
 	}
 
 	@SuppressWarnings({ "rawtypes", "unchecked" })
 	@Override
 	public void registerScript(String scriptName, String script) {
-		RemoteCache cache = scriptManager.getCache("___script_cache");
-		if (cache.get(scriptName) == null) {
-			cache.put(scriptName, script);
+		if (this.icf.isScriptRegistered(scriptName, script)) {
+			return;
 		}
+		RemoteCache cache = getScriptManager().getCache("___script_cache");
+		cache.putIfAbsent(scriptName, script);
+		this.icf.scriptRegistered(scriptName, script);
 	}
-}
\ No newline at end of file
+}
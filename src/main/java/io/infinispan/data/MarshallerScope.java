@@ -0,0 +1,93 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The marshallers registered by one execution. A thread working on the execution enters its scope, so that
+ * what the thread reads is decoded with the marshallers the execution registered, whichever thread
+ * registered them. Without a scope the marshallers are bound to the thread that registered them. The
+ * marshallers registered in a scope with a projection only decode the projected fields, see
+ * {@link ProjectingMarshaller}.
+ * <pre>
+ *    MarshallerScope previous = scope.enter();
+ *    try {
+ *        ...
+ *    } finally {
+ *        MarshallerScope.exit(previous);
+ *    }
+ * </pre>
+ */
+public class MarshallerScope {
+    private static final ThreadLocal<MarshallerScope> CURRENT = new ThreadLocal<>();
+
+    private final ConcurrentHashMap<TeiidMarshallerProvider, TeiidMarshallerProvider.Bindings> bindings = new ConcurrentHashMap<>();
+    // message type name to the field numbers to decode, null to decode all the fields
+    private final Map<String, BitSet> projection;
+
+    public MarshallerScope() {
+        this(null);
+    }
+
+    public MarshallerScope(Map<String, BitSet> projection) {
+        this.projection = projection;
+    }
+
+    /**
+     * @return the field numbers, by message type name, that the marshallers registered in this scope
+     * decode; null if they decode all the fields
+     */
+    public Map<String, BitSet> getProjection() {
+        return this.projection;
+    }
+
+    /**
+     * Makes this the scope of the current thread.
+     * @return the scope the thread was in, to pass to {@link #exit(MarshallerScope)}
+     */
+    public MarshallerScope enter() {
+        MarshallerScope previous = CURRENT.get();
+        CURRENT.set(this);
+        return previous;
+    }
+
+    public static void exit(MarshallerScope previous) {
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+
+    /**
+     * @return the scope of the current thread, null if none
+     */
+    public static MarshallerScope current() {
+        return CURRENT.get();
+    }
+
+    TeiidMarshallerProvider.Bindings getBindings(TeiidMarshallerProvider provider, boolean create) {
+        if (!create) {
+            return this.bindings.get(provider);
+        }
+        return this.bindings.computeIfAbsent(provider, p -> new TeiidMarshallerProvider.Bindings());
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.infinispan.client.hotrod.RemoteCache;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryExpired;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryModified;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryRemoved;
+import org.infinispan.client.hotrod.annotation.ClientCacheFailover;
+import org.infinispan.client.hotrod.annotation.ClientListener;
+import org.infinispan.client.hotrod.event.ClientCacheEntryExpiredEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryModifiedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryRemovedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheFailoverEvent;
+
+/**
+ * Invalidated near cache for primary key lookups on a remote cache. Entries read from the server are kept
+ * locally, bounded by entry count with LRU or FIFO eviction, and dropped when the server notifies that the
+ * entry was modified, removed or expired. On a client failover the whole near cache is cleared.
+ */
+@ClientListener
+public class NearCache {
+
+    public enum Mode {
+        DISABLED, INVALIDATED
+    }
+
+    public enum EvictionPolicy {
+        LRU, FIFO
+    }
+
+    public interface Loader {
+        Map<Object, Object> load(Set<Object> keys);
+    }
+
+    private final RemoteCache<Object, Object> cache;
+    private final int maxEntries;
+    private final LinkedHashMap<Object, Object> entries;
+    // bumped on every invalidation, a load only populates the near cache if no invalidation ran meanwhile
+    private final AtomicLong version = new AtomicLong();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public NearCache(RemoteCache<Object, Object> cache, int maxEntries, EvictionPolicy policy) {
+        this.cache = cache;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<Object, Object>(16, 0.75f, policy == EvictionPolicy.LRU) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Object> eldest) {
+                if (size() > NearCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public void start() {
+        this.cache.addClientListener(this);
+    }
+
+    public void stop() {
+        this.cache.removeClientListener(this);
+        clear();
+    }
+
+    public Object get(Object key) {
+        Object value;
+        synchronized (this.entries) {
+            value = this.entries.get(key);
+        }
+        if (value != null) {
+            this.hits.increment();
+            return value;
+        }
+        this.misses.increment();
+        long v = this.version.get();
+        value = this.cache.get(key);
+        if (value != null) {
+            populate(key, value, v);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the values found locally and loads the rest in one call of the loader.
+     */
+    public Map<Object, Object> getAll(Set<Object> keys, Loader loader) {
+        Map<Object, Object> result = new HashMap<>();
+        Set<Object> missing = new HashSet<>();
+        synchronized (this.entries) {
+            for (Object key : keys) {
+                Object value = this.entries.get(key);
+                if (value != null) {
+                    result.put(key, value);
+                } else {
+                    missing.add(key);
+                }
+            }
+        }
+        this.hits.add(result.size());
+        if (!missing.isEmpty()) {
+            this.misses.add(missing.size());
+            long v = this.version.get();
+            Map<Object, Object> loaded = loader.load(missing);
+            for (Map.Entry<Object, Object> entry : loaded.entrySet()) {
+                if (entry.getValue() != null) {
+                    populate(entry.getKey(), entry.getValue(), v);
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    private void populate(Object key, Object value, long loadVersion) {
+        synchronized (this.entries) {
+            if (this.version.get() == loadVersion) {
+                this.entries.put(key, value);
+            }
+        }
+    }
+
+    public void invalidate(Object key) {
+        synchronized (this.entries) {
+            this.version.incrementAndGet();
+            this.entries.remove(key);
+        }
+        this.invalidations.increment();
+    }
+
+    public void clear() {
+        synchronized (this.entries) {
+            this.version.incrementAndGet();
+            this.entries.clear();
+        }
+    }
+
+    @ClientCacheEntryModified
+    public void entryModified(ClientCacheEntryModifiedEvent<Object> event) {
+        invalidate(event.getKey());
+    }
+
+    @ClientCacheEntryRemoved
+    public void entryRemoved(ClientCacheEntryRemovedEvent<Object> event) {
+        invalidate(event.getKey());
+    }
+
+    @ClientCacheEntryExpired
+    public void entryExpired(ClientCacheEntryExpiredEvent<Object> event) {
+        invalidate(event.getKey());
+    }
+
+    @ClientCacheFailover
+    public void failover(ClientCacheFailoverEvent event) {
+        // events may have been missed
+        clear();
+    }
+
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getInvalidationCount() {
+        return this.invalidations.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+}
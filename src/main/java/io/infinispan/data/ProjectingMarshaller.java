@@ -0,0 +1,247 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Map;
+
+import org.infinispan.protostream.BaseMarshaller;
+import org.infinispan.protostream.ImmutableSerializationContext;
+import org.infinispan.protostream.RawProtobufMarshaller;
+import org.infinispan.protostream.RawProtobufReader;
+import org.infinispan.protostream.RawProtobufWriter;
+import org.teiid.infinispan.api.InfinispanDocument;
+
+/**
+ * Decodes only the fields of a message that a query uses. The fields of other tags are skipped on the wire
+ * instead of being decoded into the document, which keeps wide messages cheap to read when few of their
+ * columns are selected. Nested messages are decoded whole.
+ * <p>
+ * The projection is the one of the query's {@link MarshallerScope}, and a table marshaller registered in
+ * that scope is wrapped with it, so it is used by every thread working on the query. Threads reading with a
+ * marshaller registered in another scope use the full marshaller, so that documents shared between
+ * queries, like those of the near cache, are always complete.
+ */
+public class ProjectingMarshaller implements RawProtobufMarshaller<InfinispanDocument> {
+    // one filtering reader per thread, reused for every message
+    private static final ThreadLocal<FilteringReader> READERS = ThreadLocal.withInitial(FilteringReader::new);
+
+    private final RawProtobufMarshaller<InfinispanDocument> delegate;
+    private final BitSet fields;
+
+    ProjectingMarshaller(RawProtobufMarshaller<InfinispanDocument> delegate, BitSet fields) {
+        this.delegate = delegate;
+        this.fields = fields;
+    }
+
+    /**
+     * @return the marshaller projected for the current thread's scope, the given marshaller when there is no
+     * projection for its type
+     */
+    @SuppressWarnings("unchecked")
+    static BaseMarshaller<InfinispanDocument> project(BaseMarshaller<InfinispanDocument> marshaller) {
+        MarshallerScope scope = MarshallerScope.current();
+        Map<String, BitSet> projection = scope == null ? null : scope.getProjection();
+        if (projection == null || !(marshaller instanceof RawProtobufMarshaller)) {
+            return marshaller;
+        }
+        BitSet fields = projection.get(marshaller.getTypeName());
+        if (fields == null) {
+            return marshaller;
+        }
+        return new ProjectingMarshaller((RawProtobufMarshaller<InfinispanDocument>) marshaller, fields);
+    }
+
+    /**
+     * @return the marshaller decoding all the fields
+     */
+    static BaseMarshaller<?> full(BaseMarshaller<?> marshaller) {
+        return marshaller instanceof ProjectingMarshaller ? ((ProjectingMarshaller) marshaller).delegate : marshaller;
+    }
+
+    BaseMarshaller<InfinispanDocument> getDelegate() {
+        return this.delegate;
+    }
+
+    @Override
+    public Class<? extends InfinispanDocument> getJavaClass() {
+        return this.delegate.getJavaClass();
+    }
+
+    @Override
+    public String getTypeName() {
+        return this.delegate.getTypeName();
+    }
+
+    @Override
+    public InfinispanDocument readFrom(ImmutableSerializationContext ctx, RawProtobufReader in) throws IOException {
+        FilteringReader reader = READERS.get();
+        RawProtobufReader previousIn = reader.in;
+        BitSet previousFields = reader.fields;
+        int previousDepth = reader.depth;
+        reader.in = in;
+        reader.fields = this.fields;
+        reader.depth = 0;
+        try {
+            return this.delegate.readFrom(ctx, reader);
+        } finally {
+            reader.in = previousIn;
+            reader.fields = previousFields;
+            reader.depth = previousDepth;
+        }
+    }
+
+    @Override
+    public void writeTo(ImmutableSerializationContext ctx, RawProtobufWriter out, InfinispanDocument document)
+            throws IOException {
+        this.delegate.writeTo(ctx, out, document);
+    }
+
+    /**
+     * Reader that only returns the tags of the projected fields of the message and skips the others. The
+     * fields of the nested messages, read within a limit pushed by the marshaller, are all returned.
+     */
+    private static final class FilteringReader implements RawProtobufReader {
+        RawProtobufReader in;
+        BitSet fields;
+        // the number of nested messages being read
+        int depth;
+
+        @Override
+        public int readTag() throws IOException {
+            for (;;) {
+                int tag = this.in.readTag();
+                // the field number is the tag without its 3 bits of wire type
+                if (tag == 0 || this.depth > 0 || this.fields.get(tag >>> 3)) {
+                    return tag;
+                }
+                this.in.skipField(tag);
+            }
+        }
+
+        @Override
+        public int pushLimit(int limit) throws IOException {
+            int oldLimit = this.in.pushLimit(limit);
+            this.depth++;
+            return oldLimit;
+        }
+
+        @Override
+        public void popLimit(int oldLimit) {
+            this.in.popLimit(oldLimit);
+            this.depth--;
+        }
+
+        @Override
+        public void checkLastTagWas(int tag) throws IOException {
+            this.in.checkLastTagWas(tag);
+        }
+
+        @Override
+        public boolean skipField(int tag) throws IOException {
+            return this.in.skipField(tag);
+        }
+
+        @Override
+        public boolean readBool() throws IOException {
+            return this.in.readBool();
+        }
+
+        @Override
+        public int readEnum() throws IOException {
+            return this.in.readEnum();
+        }
+
+        @Override
+        public String readString() throws IOException {
+            return this.in.readString();
+        }
+
+        @Override
+        public byte[] readByteArray() throws IOException {
+            return this.in.readByteArray();
+        }
+
+        @Override
+        public ByteBuffer readByteBuffer() throws IOException {
+            return this.in.readByteBuffer();
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return this.in.readDouble();
+        }
+
+        @Override
+        public float readFloat() throws IOException {
+            return this.in.readFloat();
+        }
+
+        @Override
+        public long readInt64() throws IOException {
+            return this.in.readInt64();
+        }
+
+        @Override
+        public long readUInt64() throws IOException {
+            return this.in.readUInt64();
+        }
+
+        @Override
+        public int readInt32() throws IOException {
+            return this.in.readInt32();
+        }
+
+        @Override
+        public long readFixed64() throws IOException {
+            return this.in.readFixed64();
+        }
+
+        @Override
+        public int readFixed32() throws IOException {
+            return this.in.readFixed32();
+        }
+
+        @Override
+        public int readUInt32() throws IOException {
+            return this.in.readUInt32();
+        }
+
+        @Override
+        public int readSFixed32() throws IOException {
+            return this.in.readSFixed32();
+        }
+
+        @Override
+        public long readSFixed64() throws IOException {
+            return this.in.readSFixed64();
+        }
+
+        @Override
+        public int readSInt32() throws IOException {
+            return this.in.readSInt32();
+        }
+
+        @Override
+        public long readSInt64() throws IOException {
+            return this.in.readSInt64();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.resource.ResourceException;
+
+import org.infinispan.client.hotrod.RemoteCacheManager;
+
+/**
+ * Process wide registry of {@link RemoteCacheManager}s. A manager owns a connection pool and threads, so
+ * all connection factories that talk to the same servers, with the same security settings and marshaller,
+ * share a single instance. Managers are reference counted and stopped when the last user releases them.
+ */
+public class RemoteCacheManagerRegistry {
+
+    public interface ManagerBuilder {
+        RemoteCacheManager build() throws ResourceException;
+    }
+
+    private static class Entry {
+        final List<Object> key;
+        final CompletableFuture<RemoteCacheManager> manager = new CompletableFuture<>();
+        int references;
+
+        Entry(List<Object> key) {
+            this.key = key;
+        }
+    }
+
+    private static final RemoteCacheManagerRegistry INSTANCE = new RemoteCacheManagerRegistry();
+
+    private final Map<List<Object>, Entry> managers = new HashMap<>();
+    private final Map<RemoteCacheManager, Entry> byManager = new IdentityHashMap<>();
+
+    public static RemoteCacheManagerRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Returns the manager registered for the key, building and starting one with the builder if there is
+     * none. A manager is built outside of the registry lock, so that managers for other keys are acquired
+     * while it starts; concurrent callers for the same key wait for it. Every call must be paired with a
+     * {@link #release(RemoteCacheManager)}.
+     * @param key all the settings that define the manager; two keys are equal when all elements are equal
+     */
+    public RemoteCacheManager acquire(List<Object> key, ManagerBuilder builder) throws ResourceException {
+        Entry entry;
+        boolean build = false;
+        synchronized (this) {
+            entry = this.managers.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                this.managers.put(key, entry);
+                build = true;
+            }
+            entry.references++;
+        }
+        if (build) {
+            RemoteCacheManager manager;
+            try {
+                manager = builder.build();
+            } catch (ResourceException | RuntimeException e) {
+                synchronized (this) {
+                    this.managers.remove(key, entry);
+                }
+                entry.manager.completeExceptionally(e);
+                throw e;
+            }
+            synchronized (this) {
+                this.byManager.put(manager, entry);
+            }
+            entry.manager.complete(manager);
+            return manager;
+        }
+        try {
+            return entry.manager.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ResourceException) {
+                throw (ResourceException) e.getCause();
+            }
+            throw new ResourceException(e.getCause());
+        }
+    }
+
+    public void release(RemoteCacheManager manager) {
+        RemoteCacheManager toStop = null;
+        synchronized (this) {
+            Entry entry = this.byManager.get(manager);
+            if (entry == null) {
+                return;
+            }
+            if (--entry.references == 0) {
+                this.managers.remove(entry.key);
+                this.byManager.remove(manager);
+                toStop = manager;
+            }
+        }
+        if (toStop != null) {
+            toStop.stop();
+        }
+    }
+
+    public synchronized int size() {
+        return this.managers.size();
+    }
+}
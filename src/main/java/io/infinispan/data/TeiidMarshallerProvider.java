@@ -0,0 +1,158 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import org.infinispan.protostream.BaseMarshaller;
+import org.infinispan.protostream.SerializationContext;
+import org.infinispan.protostream.SerializationContext.MarshallerProvider;
+
+/**
+ * Marshaller provider shared by all the connections on a {@link SerializationContext}. Each query execution
+ * registers a marshaller for the message type it reads, projected for that query, so a marshaller registered
+ * in the current thread's {@link MarshallerScope}, or on the current thread when it is not in a scope, is
+ * preferred. Threads that did not register one, like the client's I/O threads,
+ * get the most recently registered marshaller for the type, decoding all of its fields. Lookups do not take
+ * any locks.
+ */
+class TeiidMarshallerProvider implements MarshallerProvider {
+    private static final Map<SerializationContext, TeiidMarshallerProvider> PROVIDERS = Collections
+            .synchronizedMap(new WeakHashMap<SerializationContext, TeiidMarshallerProvider>());
+
+    // concurrent as a marshaller may be removed by another thread than the one it is bound to
+    static class Bindings {
+        final ConcurrentHashMap<String, BaseMarshaller<?>> byType = new ConcurrentHashMap<>();
+        final ConcurrentHashMap<Class<?>, BaseMarshaller<?>> byClass = new ConcurrentHashMap<>();
+
+        boolean isEmpty() {
+            return this.byType.isEmpty() && this.byClass.isEmpty();
+        }
+    }
+
+    private final ThreadLocal<Bindings> threadBindings = new ThreadLocal<>();
+    // the bindings each marshaller was registered in
+    private final ConcurrentHashMap<BaseMarshaller<?>, Bindings> owners = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ConcurrentLinkedDeque<BaseMarshaller<?>>> byType = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Class<?>, ConcurrentLinkedDeque<BaseMarshaller<?>>> byClass = new ConcurrentHashMap<>();
+
+    /**
+     * @return the provider for the context, registering it with the context the first time
+     */
+    static TeiidMarshallerProvider forContext(SerializationContext ctx) {
+        synchronized (PROVIDERS) {
+            TeiidMarshallerProvider provider = PROVIDERS.get(ctx);
+            if (provider == null) {
+                provider = new TeiidMarshallerProvider();
+                ctx.registerMarshallerProvider(provider);
+                PROVIDERS.put(ctx, provider);
+            }
+            return provider;
+        }
+    }
+
+    /**
+     * @return the bindings of the current thread's scope, or of the thread when it is not in a scope
+     */
+    private Bindings getBindings(boolean create) {
+        MarshallerScope scope = MarshallerScope.current();
+        if (scope != null) {
+            return scope.getBindings(this, create);
+        }
+        Bindings bindings = this.threadBindings.get();
+        if (bindings == null && create) {
+            bindings = new Bindings();
+            this.threadBindings.set(bindings);
+        }
+        return bindings;
+    }
+
+    public void setMarsheller(BaseMarshaller<?> marshaller) {
+        Bindings bindings = getBindings(true);
+        bindings.byType.put(marshaller.getTypeName(), marshaller);
+        bindings.byClass.put(marshaller.getJavaClass(), marshaller);
+        this.owners.put(marshaller, bindings);
+        add(this.byType, marshaller.getTypeName(), marshaller);
+        add(this.byClass, marshaller.getJavaClass(), marshaller);
+    }
+
+    /**
+     * Removes the marshaller from the bindings it was registered in, which may be those of another thread
+     * when an execution is closed by another thread than the one that executed it.
+     */
+    public void removeMarsheller(BaseMarshaller<?> marshaller) {
+        Bindings bindings = this.owners.remove(marshaller);
+        if (bindings != null) {
+            bindings.byType.remove(marshaller.getTypeName(), marshaller);
+            bindings.byClass.remove(marshaller.getJavaClass(), marshaller);
+        }
+        Bindings current = this.threadBindings.get();
+        if (current != null && current.isEmpty()) {
+            this.threadBindings.remove();
+        }
+        remove(this.byType, marshaller.getTypeName(), marshaller);
+        remove(this.byClass, marshaller.getJavaClass(), marshaller);
+    }
+
+    private static <K> void add(ConcurrentHashMap<K, ConcurrentLinkedDeque<BaseMarshaller<?>>> map, K key,
+            BaseMarshaller<?> marshaller) {
+        map.compute(key, (k, v) -> {
+            ConcurrentLinkedDeque<BaseMarshaller<?>> deque = v == null ? new ConcurrentLinkedDeque<>() : v;
+            deque.addFirst(marshaller);
+            return deque;
+        });
+    }
+
+    private static <K> void remove(ConcurrentHashMap<K, ConcurrentLinkedDeque<BaseMarshaller<?>>> map, K key,
+            BaseMarshaller<?> marshaller) {
+        map.computeIfPresent(key, (k, v) -> {
+            v.removeFirstOccurrence(marshaller);
+            return v.isEmpty() ? null : v;
+        });
+    }
+
+    @Override
+    public BaseMarshaller<?> getMarshaller(String typeName) {
+        Bindings bindings = getBindings(false);
+        if (bindings != null) {
+            BaseMarshaller<?> marshaller = bindings.byType.get(typeName);
+            if (marshaller != null) {
+                return marshaller;
+            }
+        }
+        ConcurrentLinkedDeque<BaseMarshaller<?>> deque = this.byType.get(typeName);
+        return deque == null ? null : ProjectingMarshaller.full(deque.peekFirst());
+    }
+
+    @Override
+    public BaseMarshaller<?> getMarshaller(Class<?> javaClass) {
+        Bindings bindings = getBindings(false);
+        if (bindings != null) {
+            BaseMarshaller<?> marshaller = bindings.byClass.get(javaClass);
+            if (marshaller != null) {
+                return marshaller;
+            }
+        }
+        ConcurrentLinkedDeque<BaseMarshaller<?>> deque = this.byClass.get(javaClass);
+        return deque == null ? null : ProjectingMarshaller.full(deque.peekFirst());
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.teiid.core.types.DataTypeManager;
+import org.teiid.core.types.TransformationException;
+import org.teiid.language.AggregateFunction;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+
+/**
+ * Reads the rows of a query with aggregates computed by the server. Ickle returns COUNT and SUM as longs and
+ * AVG as a double whatever the column type, so the values are converted to the types the engine expects.
+ */
+class AggregateExecution implements ResultSetExecution {
+    private final ResultSetExecution delegate;
+    // the type of each aggregate column, null for the other columns
+    private final Class<?>[] types;
+
+    AggregateExecution(ResultSetExecution delegate, Class<?>[] types) {
+        this.delegate = delegate;
+        this.types = types;
+    }
+
+    /**
+     * @return the type of each aggregate column of the query, null if the query has no aggregates
+     */
+    static Class<?>[] aggregateTypes(QueryExpression command) {
+        if (!(command instanceof Select)) {
+            return null;
+        }
+        Select select = (Select) command;
+        List<DerivedColumn> columns = select.getDerivedColumns();
+        Class<?>[] types = new Class<?>[columns.size()];
+        boolean aggregates = false;
+        for (int i = 0; i < columns.size(); i++) {
+            if (!(columns.get(i).getExpression() instanceof AggregateFunction)) {
+                continue;
+            }
+            types[i] = columns.get(i).getExpression().getType();
+            aggregates = true;
+        }
+        return aggregates ? types : null;
+    }
+
+    @Override
+    public void execute() throws TranslatorException {
+        this.delegate.execute();
+    }
+
+    @Override
+    public List<?> next() throws TranslatorException, DataNotAvailableException {
+        List<?> row = this.delegate.next();
+        if (row == null) {
+            return null;
+        }
+        List<Object> result = new ArrayList<>(row);
+        try {
+            for (int i = 0; i < this.types.length && i < result.size(); i++) {
+                if (this.types[i] != null && result.get(i) != null) {
+                    result.set(i, DataTypeManager.transformValue(result.get(i), this.types[i]));
+                }
+            }
+        } catch (TransformationException e) {
+            throw new TranslatorException(e);
+        }
+        return result;
+    }
+
+    @Override
+    public void close() {
+        this.delegate.close();
+    }
+
+    @Override
+    public void cancel() throws TranslatorException {
+        this.delegate.cancel();
+    }
+}
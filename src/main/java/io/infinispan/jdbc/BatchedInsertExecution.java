@@ -0,0 +1,173 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.teiid.language.Command;
+import org.teiid.language.Insert;
+import org.teiid.metadata.Table;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ExecutionContext;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.UpdateExecution;
+import org.teiid.translator.infinispan.hotrod.ProtobufMetadataProcessor;
+
+/**
+ * Executes a batched INSERT or UPSERT as chunks of rows, each chunk written by the translator's own update
+ * execution on a worker thread, with a bounded number of chunks in flight. The update counts of each chunk
+ * are reported for its rows; a failed chunk fails the whole batch.
+ */
+class BatchedInsertExecution implements UpdateExecution {
+
+    interface ChunkExecutionFactory {
+        UpdateExecution create(Insert chunk) throws TranslatorException;
+    }
+
+    private final Insert insert;
+    private final ExecutionContext executionContext;
+    private final ChunkExecutionFactory factory;
+    private final ExecutorService executor;
+    private final int batchSize;
+    private final int concurrency;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private volatile boolean cancelled;
+    private int rowCount;
+    // the update counts of each chunk, with the offset of its first row
+    private final List<ChunkCounts> chunkCounts = new ArrayList<>();
+
+    private static class ChunkCounts {
+        final int offset;
+        final int rows;
+        volatile int[] counts;
+
+        ChunkCounts(int offset, int rows) {
+            this.offset = offset;
+            this.rows = rows;
+        }
+    }
+
+    BatchedInsertExecution(Insert insert, ExecutionContext executionContext, ChunkExecutionFactory factory,
+            ExecutorService executor, int batchSize, int concurrency) {
+        this.insert = insert;
+        this.executionContext = executionContext;
+        this.factory = factory;
+        this.executor = executor;
+        this.batchSize = Math.max(1, batchSize);
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    /**
+     * Only bulk inserts into top level tables are chunked; rows of a child table are merged into the
+     * document of their parent, which must not be written concurrently.
+     */
+    static boolean supports(Command command) {
+        if (!(command instanceof Insert)) {
+            return false;
+        }
+        Insert insert = (Insert) command;
+        Table table = insert.getTable().getMetadataObject();
+        return insert.getParameterValues() != null && table != null
+                && table.getProperty(ProtobufMetadataProcessor.MERGE, false) == null;
+    }
+
+    @Override
+    public void execute() throws TranslatorException {
+        Iterator<? extends List<?>> values = this.insert.getParameterValues();
+        Semaphore inFlight = new Semaphore(this.concurrency);
+        try {
+            while (values.hasNext() && this.failure.get() == null && !this.cancelled) {
+                List<List<?>> rows = new ArrayList<>(this.batchSize);
+                while (values.hasNext() && rows.size() < this.batchSize) {
+                    rows.add(values.next());
+                }
+                Insert chunk = new Insert(this.insert.getTable(), this.insert.getColumns(), this.insert.getValueSource());
+                chunk.setUpsert(this.insert.isUpsert());
+                chunk.setParameterValues(rows.iterator());
+                UpdateExecution execution = this.factory.create(chunk);
+
+                inFlight.acquire();
+                ChunkCounts counts = new ChunkCounts(this.rowCount, rows.size());
+                this.chunkCounts.add(counts);
+                this.rowCount += rows.size();
+                this.executor.execute(() -> {
+                    try {
+                        execution.execute();
+                        counts.counts = execution.getUpdateCounts();
+                    } catch (Throwable e) {
+                        this.failure.compareAndSet(null, e);
+                    } finally {
+                        execution.close();
+                        inFlight.release();
+                    }
+                });
+            }
+            // wait for the chunks still in flight
+            inFlight.acquire(this.concurrency);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel();
+            throw new TranslatorException(e);
+        }
+        Throwable e = this.failure.get();
+        if (e instanceof TranslatorException) {
+            throw (TranslatorException) e;
+        } else if (e != null) {
+            throw new TranslatorException(e);
+        }
+        if (this.cancelled) {
+            throw new TranslatorException("Batched insert into " + this.insert.getTable().getName() //$NON-NLS-1$
+                    + " was cancelled in request " + this.executionContext.getRequestId()); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public int[] getUpdateCounts() throws DataNotAvailableException, TranslatorException {
+        int[] counts = new int[this.rowCount];
+        for (ChunkCounts chunk : this.chunkCounts) {
+            int[] chunkCounts = chunk.counts;
+            if (chunkCounts != null && chunkCounts.length == chunk.rows) {
+                System.arraycopy(chunkCounts, 0, counts, chunk.offset, chunk.rows);
+            } else if (chunkCounts != null && chunkCounts.length == 1 && chunkCounts[0] == chunk.rows) {
+                // a single count for the whole chunk, every row was written
+                Arrays.fill(counts, chunk.offset, chunk.offset + chunk.rows, 1);
+            } else {
+                // the count of each row is not known
+                Arrays.fill(counts, chunk.offset, chunk.offset + chunk.rows, Statement.SUCCESS_NO_INFO);
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public void cancel() throws TranslatorException {
+        // chunks in flight complete, no further chunk is started
+        this.cancelled = true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
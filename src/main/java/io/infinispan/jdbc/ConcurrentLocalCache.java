@@ -0,0 +1,371 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.teiid.cache.Cache;
+import org.teiid.common.buffer.TupleBuffer;
+import org.teiid.dqp.internal.process.CachedResults;
+import org.teiid.dqp.internal.process.PreparedPlan;
+
+/**
+ * Thread safe LRU cache used by the embedded Teiid engine for prepared plans and result sets. The cache
+ * is split into lock striped segments, each one an access ordered map bounded by entry count and by
+ * estimated byte weight. Entries expire after the ttl given on put, or the default ttl of the cache.
+ */
+public class ConcurrentLocalCache<K, V> implements Cache<K, V> {
+
+    public interface Weigher {
+        long weigh(Object key, Object value);
+    }
+
+    /**
+     * Estimates the size of common value types and of the values the engine caches: a cached result by
+     * its row and column counts, as its tuples are held in the buffer manager for as long as it is cached,
+     * and a prepared plan by the length of its statement. Anything else is assumed to be a fixed size.
+     */
+    public static final Weigher DEFAULT_WEIGHER = new Weigher() {
+        @Override
+        public long weigh(Object key, Object value) {
+            return 64 + estimate(key) + estimate(value);
+        }
+
+        private long estimate(Object value) {
+            if (value == null) {
+                return 0;
+            }
+            if (value instanceof byte[]) {
+                return 16 + ((byte[])value).length;
+            }
+            if (value instanceof CharSequence) {
+                return 40 + 2L * ((CharSequence)value).length();
+            }
+            if (value instanceof Collection) {
+                long size = 32;
+                for (Object o : (Collection<?>)value) {
+                    size += 8 + estimate(o);
+                }
+                return size;
+            }
+            if (value instanceof CachedResults) {
+                TupleBuffer results = ((CachedResults)value).getResults();
+                if (results != null) {
+                    return 256 + (long)results.getRowCount() * results.getSchema().size() * 32;
+                }
+            }
+            if (value instanceof PreparedPlan && ((PreparedPlan)value).getCommand() != null) {
+                // the plan tree grows with the statement it was planned from
+                return 1024 + 32L * ((PreparedPlan)value).getCommand().toString().length();
+            }
+            return 512;
+        }
+    };
+
+    private static final long NO_EXPIRY = Long.MIN_VALUE;
+
+    private static class Entry<V> {
+        final V value;
+        final long weight;
+        final long expiresAt;
+
+        Entry(V value, long weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return this.expiresAt != NO_EXPIRY && now - this.expiresAt >= 0;
+        }
+    }
+
+    private static final class Segment<K, V> extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+        final LinkedHashMap<K, Entry<V>> map = new LinkedHashMap<>(16, 0.75f, true);
+        final int maxEntries;
+        final long maxWeight;
+        final LongAdder evictions;
+        final LongAdder expirations;
+        long weight;
+
+        Segment(int maxEntries, long maxWeight, LongAdder evictions, LongAdder expirations) {
+            this.maxEntries = maxEntries;
+            this.maxWeight = maxWeight;
+            this.evictions = evictions;
+            this.expirations = expirations;
+        }
+
+        V get(K key) {
+            lock();
+            try {
+                Entry<V> e = this.map.get(key);
+                if (e == null) {
+                    return null;
+                }
+                if (e.isExpired(System.nanoTime())) {
+                    this.map.remove(key);
+                    this.weight -= e.weight;
+                    this.expirations.increment();
+                    return null;
+                }
+                return e.value;
+            } finally {
+                unlock();
+            }
+        }
+
+        V put(K key, Entry<V> entry) {
+            lock();
+            try {
+                Entry<V> previous = this.map.put(key, entry);
+                this.weight += entry.weight;
+                if (previous != null) {
+                    this.weight -= previous.weight;
+                }
+                Iterator<Entry<V>> iter = this.map.values().iterator();
+                while ((this.map.size() > this.maxEntries || this.weight > this.maxWeight) && iter.hasNext()) {
+                    Entry<V> eldest = iter.next();
+                    iter.remove();
+                    this.weight -= eldest.weight;
+                    this.evictions.increment();
+                }
+                return previous == null ? null : previous.value;
+            } finally {
+                unlock();
+            }
+        }
+
+        V remove(Object key) {
+            lock();
+            try {
+                Entry<V> previous = this.map.remove(key);
+                if (previous == null) {
+                    return null;
+                }
+                this.weight -= previous.weight;
+                return previous.value;
+            } finally {
+                unlock();
+            }
+        }
+
+        int size() {
+            lock();
+            try {
+                return this.map.size();
+            } finally {
+                unlock();
+            }
+        }
+
+        void clear() {
+            lock();
+            try {
+                this.map.clear();
+                this.weight = 0;
+            } finally {
+                unlock();
+            }
+        }
+
+        void addKeys(Set<K> keys) {
+            lock();
+            try {
+                keys.addAll(this.map.keySet());
+            } finally {
+                unlock();
+            }
+        }
+
+        long weight() {
+            lock();
+            try {
+                return this.weight;
+            } finally {
+                unlock();
+            }
+        }
+    }
+
+    private final String name;
+    private final Segment<K, V>[] segments;
+    private final long segmentMaxWeight;
+    private final long defaultTtlNanos;
+    private final Weigher weigher;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    /**
+     * @param maxEntries maximum number of entries, negative for unbounded
+     * @param maxWeight maximum estimated size in bytes, negative for unbounded
+     * @param defaultTtl ttl in milliseconds used when none is given on put, negative for no expiry
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLocalCache(String name, int maxEntries, long maxWeight, long defaultTtl, Weigher weigher) {
+        this.name = name;
+        int count = 1;
+        // small caches use a single segment to keep a true LRU order
+        while (count < 16 && (maxEntries < 0 || count * 32 <= maxEntries)) {
+            count <<= 1;
+        }
+        int segmentMaxEntries = maxEntries < 0 ? Integer.MAX_VALUE : Math.max(1, (maxEntries + count - 1) / count);
+        this.segmentMaxWeight = maxWeight < 0 ? Long.MAX_VALUE : Math.max(1, maxWeight / count);
+        this.segments = new Segment[count];
+        for (int i = 0; i < count; i++) {
+            this.segments[i] = new Segment<>(segmentMaxEntries, this.segmentMaxWeight, this.evictions,
+                    this.expirations);
+        }
+        this.defaultTtlNanos = defaultTtl < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(defaultTtl);
+        this.weigher = weigher == null ? DEFAULT_WEIGHER : weigher;
+    }
+
+    public ConcurrentLocalCache(String name, int maxEntries) {
+        this(name, maxEntries, -1, -1, null);
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= (h >>> 16);
+        return this.segments[h & (this.segments.length - 1)];
+    }
+
+    @Override
+    public V get(K key) {
+        V value = segmentFor(key).get(key);
+        if (value == null) {
+            this.misses.increment();
+        } else {
+            this.hits.increment();
+        }
+        return value;
+    }
+
+    /**
+     * @param ttl time to live in milliseconds, null to use the cache default
+     */
+    @Override
+    public V put(K key, V value, Long ttl) {
+        long now = System.nanoTime();
+        long expiresAt;
+        if (ttl != null && ttl > 0) {
+            expiresAt = now + TimeUnit.MILLISECONDS.toNanos(ttl);
+        } else if (this.defaultTtlNanos > 0) {
+            expiresAt = now + this.defaultTtlNanos;
+        } else {
+            expiresAt = NO_EXPIRY;
+        }
+        long weight = this.weigher.weigh(key, value);
+        Segment<K, V> segment = segmentFor(key);
+        if (weight > this.segmentMaxWeight) {
+            // would evict everything else, not worth caching
+            return segment.remove(key);
+        }
+        return segment.put(key, new Entry<>(value, weight, expiresAt));
+    }
+
+    public V put(K key, V value) {
+        return put(key, value, null);
+    }
+
+    @Override
+    public V remove(K key) {
+        return segmentFor(key).remove(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> s : this.segments) {
+            size += s.size();
+        }
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        for (Segment<K, V> s : this.segments) {
+            s.clear();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    public Set<K> keySet() {
+        Set<K> keys = new HashSet<>();
+        for (Segment<K, V> s : this.segments) {
+            s.addKeys(keys);
+        }
+        return keys;
+    }
+
+    public Set<K> keys() {
+        return keySet();
+    }
+
+    @Override
+    public boolean isTransactional() {
+        return false;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return this.expirations.sum();
+    }
+
+    /**
+     * @return estimated size in bytes of the cached entries
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Segment<K, V> s : this.segments) {
+            weight += s.weight();
+        }
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return "Cache[" + this.name + ", size=" + size() + ", hits=" + getHitCount() + ", misses=" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + getMissCount() + ", evictions=" + getEvictionCount() + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
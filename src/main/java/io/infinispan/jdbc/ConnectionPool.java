@@ -0,0 +1,183 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+
+/**
+ * Bounded pool of {@link PooledConnectionImpl}s. The number of connections handed out is bounded by a
+ * semaphore, idle connections are kept in a lock free deque and reused most recently returned first.
+ */
+class ConnectionPool implements ConnectionEventListener {
+
+    interface ConnectionSource {
+        PooledConnectionImpl create() throws SQLException;
+    }
+
+    private final ConnectionSource source;
+    private final int maxSize;
+    private final Semaphore permits;
+    private final ConcurrentLinkedDeque<PooledConnectionImpl> idle = new ConcurrentLinkedDeque<>();
+    private final long maxWaitNanos;
+    private final long validationIntervalNanos;
+    private final int validationTimeout;
+    private volatile boolean closed;
+
+    private final LongAdder borrowCount = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+    private final LongAdder timeoutCount = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWait = new AtomicLong();
+
+    ConnectionPool(ConnectionSource source, int maxSize, long maxWaitMillis, long validationIntervalMillis,
+            int validationTimeout) {
+        this.source = source;
+        this.maxSize = maxSize;
+        this.permits = new Semaphore(maxSize);
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.validationIntervalNanos = TimeUnit.MILLISECONDS.toNanos(validationIntervalMillis);
+        this.validationTimeout = validationTimeout;
+    }
+
+    Connection borrow() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed"); //$NON-NLS-1$
+        }
+        if (!this.permits.tryAcquire()) {
+            long start = System.nanoTime();
+            this.waitCount.increment();
+            boolean acquired;
+            try {
+                acquired = this.permits.tryAcquire(this.maxWaitNanos, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException(e);
+            }
+            recordWait(System.nanoTime() - start);
+            if (!acquired) {
+                this.timeoutCount.increment();
+                throw new SQLException("Timed out waiting for a pooled connection"); //$NON-NLS-1$
+            }
+        }
+        this.borrowCount.increment();
+        try {
+            return checkout().getConnection();
+        } catch (SQLException | RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    private PooledConnectionImpl checkout() throws SQLException {
+        PooledConnectionImpl pc;
+        while ((pc = this.idle.pollFirst()) != null) {
+            if (System.nanoTime() - pc.getLastUsed() < this.validationIntervalNanos
+                    || pc.isValid(this.validationTimeout)) {
+                return pc;
+            }
+            destroy(pc);
+        }
+        pc = this.source.create();
+        pc.addConnectionEventListener(this);
+        return pc;
+    }
+
+    private void recordWait(long nanos) {
+        this.totalWaitNanos.add(nanos);
+        long max;
+        while (nanos > (max = this.maxWait.get())) {
+            if (this.maxWait.compareAndSet(max, nanos)) {
+                break;
+            }
+        }
+    }
+
+    @Override
+    public void connectionClosed(ConnectionEvent event) {
+        PooledConnectionImpl pc = (PooledConnectionImpl) event.getSource();
+        if (!this.closed && pc.reset()) {
+            this.idle.offerFirst(pc);
+        } else {
+            destroy(pc);
+        }
+        this.permits.release();
+    }
+
+    @Override
+    public void connectionErrorOccurred(ConnectionEvent event) {
+        // the handle is still open, the connection is discarded when it gets closed
+        PooledConnectionImpl pc = (PooledConnectionImpl) event.getSource();
+        pc.removeConnectionEventListener(this);
+        destroy(pc);
+        this.permits.release();
+    }
+
+    private void destroy(PooledConnectionImpl pc) {
+        try {
+            pc.close();
+        } catch (SQLException e) {
+            Driver.logger.log(Level.FINE, "Failed to close pooled connection", e); //$NON-NLS-1$
+        }
+    }
+
+    void close() {
+        this.closed = true;
+        PooledConnectionImpl pc;
+        while ((pc = this.idle.pollFirst()) != null) {
+            destroy(pc);
+        }
+    }
+
+    int getActiveCount() {
+        return this.maxSize - this.permits.availablePermits();
+    }
+
+    int getIdleCount() {
+        return this.idle.size();
+    }
+
+    long getBorrowCount() {
+        return this.borrowCount.sum();
+    }
+
+    long getWaitCount() {
+        return this.waitCount.sum();
+    }
+
+    long getTimeoutCount() {
+        return this.timeoutCount.sum();
+    }
+
+    long getTotalWaitNanos() {
+        return this.totalWaitNanos.sum();
+    }
+
+    long getMaxWaitNanos() {
+        return this.maxWait.get();
+    }
+}
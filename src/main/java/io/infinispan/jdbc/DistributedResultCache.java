@@ -0,0 +1,334 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+import javax.resource.ResourceException;
+
+import org.infinispan.client.hotrod.RemoteCache;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryCreated;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryExpired;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryModified;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryRemoved;
+import org.infinispan.client.hotrod.annotation.ClientCacheFailover;
+import org.infinispan.client.hotrod.annotation.ClientListener;
+import org.infinispan.client.hotrod.event.ClientCacheEntryCreatedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryExpiredEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryModifiedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryRemovedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheFailoverEvent;
+import org.teiid.language.QueryExpression;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.data.InfinispanConnectionImpl;
+
+/**
+ * Result cache shared by all the JVMs using the same servers. The rows of a source query are serialized
+ * into a remote cache, keyed by the query, together with the version of the source cache they were read
+ * at. Every driver listens to the writes on its source caches and publishes a new version when one
+ * happens, so a cached result is only used while the source cache has not changed since it was read.
+ */
+class DistributedResultCache {
+    private static final String VERSION_PREFIX = "version:"; //$NON-NLS-1$
+    private static final String RESULT_PREFIX = "result:"; //$NON-NLS-1$
+
+    // the classes a cached result may contain, anything else in the result cache is not deserialized
+    static final Set<String> ROW_TYPES = new HashSet<>(Arrays.asList(ArrayList.class.getName(),
+            String.class.getName(), Boolean.class.getName(), Character.class.getName(), Number.class.getName(),
+            Byte.class.getName(), Short.class.getName(), Integer.class.getName(), Long.class.getName(),
+            Float.class.getName(), Double.class.getName(), BigInteger.class.getName(), BigDecimal.class.getName(),
+            java.util.Date.class.getName(), Date.class.getName(), Time.class.getName(), Timestamp.class.getName(),
+            byte[].class.getName()));
+
+    // connection factories whose cache publishes its versions, to the result caches it publishes to
+    private static final Map<InfinispanConnectionFactory, Set<String>> PUBLISHERS = new WeakHashMap<>();
+
+    private final String cacheName;
+    private final long ttl;
+    private final int maxRows;
+
+    DistributedResultCache(String cacheName, long ttl, int maxRows) {
+        this.cacheName = cacheName;
+        this.ttl = ttl;
+        this.maxRows = maxRows;
+    }
+
+    /**
+     * @return the execution reading its rows from the result cache when they are there, and storing them
+     * otherwise; the given execution when the connection is not one of the driver
+     */
+    ResultSetExecution wrap(QueryExpression command, ResultSetExecution execution, Object connection)
+            throws TranslatorException {
+        if (!(connection instanceof InfinispanConnectionImpl)) {
+            return execution;
+        }
+        InfinispanConnectionImpl ispn = (InfinispanConnectionImpl) connection;
+        RemoteCache<String, Object> results = (RemoteCache<String, Object>) ispn.<String, Object> getCache(
+                this.cacheName, true);
+        String source = ispn.getConnectionFactory().getCacheName();
+        publishVersions(ispn.getConnectionFactory(), results, source);
+        return new CachedExecution(execution, results, VERSION_PREFIX + source,
+                RESULT_PREFIX + source + ":" + command.toString()); //$NON-NLS-1$
+    }
+
+    private void publishVersions(InfinispanConnectionFactory factory, RemoteCache<String, Object> results,
+            String source) throws TranslatorException {
+        synchronized (PUBLISHERS) {
+            Set<String> caches = PUBLISHERS.get(factory);
+            if (caches == null) {
+                caches = new HashSet<>();
+                PUBLISHERS.put(factory, caches);
+            }
+            if (caches.add(this.cacheName)) {
+                try {
+                    factory.addClientListener(new VersionPublisher(results, VERSION_PREFIX + source));
+                } catch (ResourceException e) {
+                    caches.remove(this.cacheName);
+                    throw new TranslatorException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts a new random version of the source cache into the result cache when the source cache is
+     * written. Writes arriving while a version is being put are covered by one more put afterwards.
+     */
+    @ClientListener
+    static class VersionPublisher {
+        private final RemoteCache<String, Object> results;
+        private final String versionKey;
+        private final AtomicBoolean dirty = new AtomicBoolean();
+        private final AtomicBoolean publishing = new AtomicBoolean();
+
+        VersionPublisher(RemoteCache<String, Object> results, String versionKey) {
+            this.results = results;
+            this.versionKey = versionKey;
+        }
+
+        @ClientCacheEntryCreated
+        public void entryCreated(ClientCacheEntryCreatedEvent<Object> event) {
+            changed();
+        }
+
+        @ClientCacheEntryModified
+        public void entryModified(ClientCacheEntryModifiedEvent<Object> event) {
+            changed();
+        }
+
+        @ClientCacheEntryRemoved
+        public void entryRemoved(ClientCacheEntryRemovedEvent<Object> event) {
+            changed();
+        }
+
+        @ClientCacheEntryExpired
+        public void entryExpired(ClientCacheEntryExpiredEvent<Object> event) {
+            changed();
+        }
+
+        @ClientCacheFailover
+        public void failover(ClientCacheFailoverEvent event) {
+            // events may have been missed
+            changed();
+        }
+
+        void changed() {
+            this.dirty.set(true);
+            if (this.publishing.compareAndSet(false, true)) {
+                publish();
+            }
+        }
+
+        private void publish() {
+            this.dirty.set(false);
+            this.results.putAsync(this.versionKey, ThreadLocalRandom.current().nextLong()).whenComplete((r, e) -> {
+                if (e != null) {
+                    Driver.logger.log(Level.WARNING, "Failed to publish the version of " + this.versionKey, e); //$NON-NLS-1$
+                }
+                this.publishing.set(false);
+                if (this.dirty.get() && this.publishing.compareAndSet(false, true)) {
+                    publish();
+                }
+            });
+        }
+    }
+
+    private class CachedExecution implements ResultSetExecution {
+        private final ResultSetExecution delegate;
+        private final RemoteCache<String, Object> results;
+        private final String versionKey;
+        private final String resultKey;
+        private Long version;
+        private Iterator<List<?>> cached;
+        private List<List<?>> collected = new ArrayList<>();
+
+        CachedExecution(ResultSetExecution delegate, RemoteCache<String, Object> results, String versionKey,
+                String resultKey) {
+            this.delegate = delegate;
+            this.results = results;
+            this.versionKey = versionKey;
+            this.resultKey = resultKey;
+        }
+
+        @Override
+        public void execute() throws TranslatorException {
+            this.version = (Long) this.results.get(this.versionKey);
+            if (this.version == null) {
+                Long initial = ThreadLocalRandom.current().nextLong();
+                this.version = (Long) this.results.putIfAbsent(this.versionKey, initial);
+                if (this.version == null) {
+                    this.version = initial;
+                }
+            }
+            Object value = this.results.get(this.resultKey);
+            if (value instanceof byte[]) {
+                List<List<?>> rows = read((byte[]) value, this.version);
+                if (rows != null) {
+                    this.cached = rows.iterator();
+                    this.collected = null;
+                    return;
+                }
+            }
+            this.delegate.execute();
+        }
+
+        @Override
+        public List<?> next() throws TranslatorException, DataNotAvailableException {
+            if (this.cached != null) {
+                return this.cached.hasNext() ? this.cached.next() : null;
+            }
+            List<?> row = this.delegate.next();
+            if (this.collected != null) {
+                if (row == null) {
+                    store();
+                } else if (this.collected.size() < maxRows) {
+                    this.collected.add(row);
+                } else {
+                    // too large to be shared
+                    this.collected = null;
+                }
+            }
+            return row;
+        }
+
+        private void store() {
+            List<List<?>> rows = this.collected;
+            this.collected = null;
+            // only the types that can be read back are written, each row as an ArrayList
+            ArrayList<ArrayList<Object>> values = new ArrayList<>(rows.size());
+            for (List<?> row : rows) {
+                for (Object value : row) {
+                    if (value != null && !ROW_TYPES.contains(value.getClass().getName())) {
+                        Driver.logger.log(Level.FINE, "Result of " + this.resultKey + " is not cached, it has " //$NON-NLS-1$ //$NON-NLS-2$
+                                + value.getClass().getName() + " values"); //$NON-NLS-1$
+                        return;
+                    }
+                }
+                values.add(new ArrayList<Object>(row));
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                    out.writeLong(this.version);
+                    out.writeObject(values);
+                }
+                this.results.putAsync(this.resultKey, bytes.toByteArray(), ttl, TimeUnit.MILLISECONDS);
+            } catch (IOException e) {
+                // values that can not be serialized, like lobs, are not shared
+                Driver.logger.log(Level.FINE, "Result of " + this.resultKey + " is not cached", e); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        @Override
+        public void close() {
+            this.delegate.close();
+        }
+
+        @Override
+        public void cancel() throws TranslatorException {
+            this.collected = null;
+            this.delegate.cancel();
+        }
+    }
+
+    /**
+     * Reads only the classes of row values, as any client of the server can write to the result cache.
+     */
+    private static class RowInputStream extends ObjectInputStream {
+        RowInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+            if (!ROW_TYPES.contains(desc.getName())) {
+                throw new InvalidClassException(desc.getName(), "not a row value type"); //$NON-NLS-1$
+            }
+            return super.resolveClass(desc);
+        }
+
+        @Override
+        protected Class<?> resolveProxyClass(String[] interfaces) throws IOException, ClassNotFoundException {
+            throw new InvalidClassException("proxy", "not a row value type"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * @return the rows if they were read at the given version, null otherwise
+     */
+    @SuppressWarnings("unchecked")
+    static List<List<?>> read(byte[] bytes, long version) {
+        try (ObjectInputStream in = new RowInputStream(new ByteArrayInputStream(bytes))) {
+            if (in.readLong() != version) {
+                return null;
+            }
+            return (List<List<?>>) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            Driver.logger.log(Level.FINE, "Ignoring a result that can not be read", e); //$NON-NLS-1$
+            return null;
+        }
+    }
+}
@@ -19,25 +19,45 @@
 package io.infinispan.jdbc;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
 import java.net.URLDecoder;
 import java.sql.DriverManager;
 import java.sql.DriverPropertyInfo;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.resource.ResourceException;
+
 import org.teiid.adminapi.AdminException;
+import org.teiid.adminapi.EngineStatistics;
+import org.teiid.adminapi.Session;
 import org.teiid.adminapi.VDB;
-import org.teiid.cache.Cache;
-import org.teiid.cache.CacheFactory;
 import org.teiid.core.util.ApplicationInfo;
 import org.teiid.core.util.ObjectConverterUtil;
 import org.teiid.core.util.PropertiesUtils;
@@ -46,17 +66,23 @@ import org.teiid.dqp.internal.datamgr.ConnectorManagerRepository.ConnectorManage
 import org.teiid.jdbc.ConnectionImpl;
 import org.teiid.runtime.EmbeddedConfiguration;
 import org.teiid.translator.TranslatorException;
-import org.teiid.translator.infinispan.hotrod.InfinispanExecutionFactory;
 
 import io.infinispan.data.InfinispanConnectionFactory;
-import io.infinispan.jdbc.TeiidServer.LocalCache;
+import io.infinispan.data.NearCache;
 
 
 /**
  * JDBC Driver class for Infinispan Remote cache cluster. The JDBC URL format is
  * <pre>
- *    jdbc:infinispan://&lt;host&gt;[:&lt;port&gt]/&lt;cache-name&gt;;protobuf=&lt;protobuf-name&gt;[...]
+ *    jdbc:infinispan://&lt;host&gt;[:&lt;port&gt][,&lt;host&gt;[:&lt;port&gt]...]/&lt;cache-name&gt;;protobuf=&lt;protobuf-name&gt;[...]
  * </pre>
+ * All the servers of a cluster can be listed, the client then connects to any of them and routes key based
+ * operations to the node owning the key.
+ * Several caches, optionally on other clusters, can be given as a comma separated list, like
+ * "/orders,customers@otherhost:11222", to query and join them on one connection. Each cache is then a
+ * model named after the cache, and its schema or protobuf is given with the "&lt;cache-name&gt;.schema" or
+ * "&lt;cache-name&gt;.protobuf" properties.
+ * <p>
  * Sample code looks like
  * <pre>
         Class.forName("io.infinispan.jdbc.Driver");
@@ -74,7 +100,62 @@ import io.infinispan.jdbc.TeiidServer.LocalCache;
  *    saslMechanism => authentication mechanism. Allowed values are "CRAM-MD5", "DIGEST-MD5", "PLAIN".
  *    authenticationRealm => if cache is secured with external server
  *    authenticationServerName => if cache is secured with external server
+ *    clientIntelligence => "BASIC", "TOPOLOGY_AWARE" or "HASH_DISTRIBUTION_AWARE", default "HASH_DISTRIBUTION_AWARE"
+ *        which sends key based operations to the node owning the key
+ *    balancingStrategy => class name of the Hot Rod FailoverRequestBalancingStrategy choosing the server of
+ *        queries and other operations without a key, default round robin
+ *    nearCache => "INVALIDATED" to keep primary key lookups in a near cache invalidated by the server, default "DISABLED"
+ *    nearCacheMaxEntries => maximum entries of the near cache, default 10000
+ *    nearCacheEvictionPolicy => "LRU" or "FIFO", default "LRU"
+ *    resultCache => "true" to cache the results of SELECTs; a cached result is dropped when any client
+ *        writes to a cache it was read from, and the cache is bounded by "resultset.cacheMaxEntries" and
+ *        "resultset.cacheMaxBytes", estimated from the row counts, default "false"
+ *    distributedResultCache => name of a remote cache, created from the cache template when missing, in
+ *        which the results of source queries are shared with the other JVMs using the driver; a result is
+ *        only used while no client wrote to its source cache since it was read, default not shared
+ *    cacheTemplate => server configuration template of the caches created by the driver
+ *    distributedResultCacheTtl => time to live in milliseconds of a shared result, default 60000
+ *    distributedResultCacheMaxRows => results with more rows are not shared, default 10000
+ *    cacheMaxEntries => maximum entries of each engine cache (prepared plans, result sets), default 1024
+ *    cacheMaxBytes => maximum estimated size in bytes of each engine cache, default unbounded
+ *    cacheTtl => default time to live in milliseconds of an engine cache entry, default no expiry
+ *    streaming => "true" to fetch the next page of a query in the background while the current one is read
+ *    fetchSize => number of entries fetched with each remote query page, default the engine batch size
+ *    keyLookup => "false" to read primary key equality and IN queries with remote queries instead of key
+ *        lookups, default "true"
+ *    aggregatePushdown => "false" to compute COUNT, SUM, AVG, MIN, MAX, GROUP BY and HAVING in the driver
+ *        instead of the server, default "true"; COUNT(*) is always computed in the driver, as Ickle has none,
+ *        so count a NOT NULL column to have the server count
+ *    serverSideDelete => "true" to run a DELETE whose conditions are comparisons, IN and IS NULL of columns with
+ *        literals as a server task that removes the matching entries, so that no key crosses the network;
+ *        this needs the permission to register scripts, otherwise the DELETE runs as usual, default "false"
+ *    projectedDecoding => "false" to decode all the fields of the entries a query reads instead of only those
+ *        of the columns it uses, default "true"
+ *    writeBatchSize => number of rows of a batched INSERT or UPSERT written with each putAll, default 1000
+ *    writeConcurrency => number of write batches in flight at the same time, default 4, 1 to disable
+ *    &lt;cache-name&gt;.schema, &lt;cache-name&gt;.protobuf => schema or protobuf of one cache of a cache list
+ *    maxInCriteriaSize => maximum number of values of an IN sent to a cache, this also bounds the key sets of
+ *        dependent joins across caches, default 1000
+ *    maxDependentInPredicates => maximum number of IN predicates of one dependent join query, default 50
+ *    useCallingThread => "false" to run the statements of the connection on the engine worker pool, so the
+ *        source queries of one statement run in parallel, default "true" which runs them one after the other
+ *        on the thread executing the statement, "false" for a list of caches
+ *    maxThreads => size of the engine worker pool, default 64
+ *    parallelism => maximum number of source queries of one statement running at the same time on the
+ *        worker pool, default the engine default
+ *    metadataSnapshot => directory in which the imported metadata of each VDB is saved, so that the next start
+ *        deploys it without importing the protobuf files again; the snapshot is ignored and replaced when the
+ *        protobuf or schema contents change
+ *    idleTimeout => milliseconds after which a VDB without open connections is undeployed and the Hot Rod
+ *        clients of its caches are closed, it is deployed again by the next connection, default never
+ *    shutdownHook => "true" to call Driver.shutdown() when the JVM exits, default "false"
+ *    bufferStorage => where large results, sorts and joins are buffered, "heap", "offheap" or "disk", default "heap"
+ *    bufferMemory => size in MB of the memory buffer, default 256 for "offheap"
+ *    bufferMaxDisk => maximum size in MB of the buffer files for "offheap" and "disk"
+ *    bufferDirectory => directory of the buffer files, default a new directory under java.io.tmpdir
  * </pre>
+ * Engine settings are taken from the first connection that starts the embedded engine, and can also be
+ * given as system properties prefixed with "io.infinispan.jdbc.", like "io.infinispan.jdbc.cacheMaxEntries".
  */
 
 public class Driver implements java.sql.Driver {
@@ -84,13 +165,39 @@ public class Driver implements java.sql.Driver {
     static Logger logger = Logger.getLogger("org.infinispan.jdbc"); //$NON-NLS-1$
     static final String DRIVER_NAME = "Infinispan JDBC Driver"; //$NON-NLS-1$
     static final String JDBC_PROTOCOL = "jdbc:infinispan:"; //$NON-NLS-1$
+    static final String SYSTEM_PROPERTY_PREFIX = "io.infinispan.jdbc."; //$NON-NLS-1$
     static final String URL_PATTERN = JDBC_PROTOCOL + "(?://([^;]*))?(;.*)?"; //$NON-NLS-1$
 
     static Pattern urlPattern = Pattern.compile(URL_PATTERN);
+    // connection property to the translator property of DriverExecutionFactory it sets
+    static final String[][] TRANSLATOR_PROPERTIES = {
+            {"streaming", "Streaming"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"fetchSize", "FetchSize"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"writeBatchSize", "WriteBatchSize"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"writeConcurrency", "WriteConcurrency"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"keyLookup", "KeyLookup"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"aggregatePushdown", "AggregatePushdown"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"serverSideDelete", "ServerSideDelete"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"projectedDecoding", "ProjectedDecoding"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"distributedResultCache", "DistributedResultCache"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"distributedResultCacheTtl", "DistributedResultCacheTtl"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"distributedResultCacheMaxRows", "DistributedResultCacheMaxRows"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"maxInCriteriaSize", "MaxInCriteriaSize"}, //$NON-NLS-1$ //$NON-NLS-2$
+            {"maxDependentInPredicates", "MaxDependentInPredicates"}}; //$NON-NLS-1$ //$NON-NLS-2$
 
     private static Driver INSTANCE = new Driver();
-    private static TeiidServer TEIID;
-    private EmbeddedConfiguration config;
+    private static volatile TeiidServer TEIID;
+    // URL to its parsed properties, and URL to the name of the VDB already deployed for it
+    private static ConcurrentHashMap<String, Properties> parsedURLs = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<String, String> deployedVDBs = new ConcurrentHashMap<>();
+    // VDB name to its deployment, done or in progress
+    private static ConcurrentHashMap<String, CompletableFuture<String>> deployments = new ConcurrentHashMap<>();
+    // "vdb.model" of the models whose cache is listened to for invalidating cached results
+    private static Set<String> invalidatedModels = ConcurrentHashMap.newKeySet();
+    // VDB name to the connection factory of each of its models, and to the last time a connection was opened to it
+    private static ConcurrentHashMap<String, Map<String, String>> vdbFactories = new ConcurrentHashMap<>();
+    private static ConcurrentHashMap<String, Long> lastUsed = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService reaper;
 
     static {
         try {
@@ -109,10 +216,42 @@ public class Driver implements java.sql.Driver {
 
     @Override
     public ConnectionImpl connect(String url, Properties info) throws SQLException {
-        Matcher m = urlPattern.matcher(url);
-        if (!m.matches()) {
+        info = connectionProperties(url, info);
+        if (info == null) {
             return null;
         }
+
+        // marks the VDB as used before looking it up, so that it is not evicted in between
+        if (info.getProperty("cache") != null) { //$NON-NLS-1$
+            lastUsed.put(vdbName(info), System.currentTimeMillis());
+        }
+
+        // once deployed, the connection goes straight to the Teiid local connection
+        String vdbName = deployedVDBs.get(url);
+        if (vdbName == null) {
+            vdbName = initTeiid(info);
+            deployedVDBs.put(url, vdbName);
+        }
+
+        // the caches of a list are read in parallel by the engine threads
+        boolean cacheList = info.getProperty("cache", "").indexOf(',') != -1; //$NON-NLS-1$ //$NON-NLS-2$
+        return connectTeiid(vdbName, info,
+                Boolean.parseBoolean(getProperty(info, "useCallingThread", String.valueOf(!cacheList)))); //$NON-NLS-1$
+    }
+
+    /**
+     * @return a copy of the given properties with the properties of the URL, null if the URL is not one of
+     * this driver
+     */
+    private Properties connectionProperties(String url, Properties info) throws SQLException {
+        Properties urlProperties = parsedURLs.get(url);
+        if (urlProperties == null) {
+            if (!acceptsURL(url)) {
+                return null;
+            }
+            urlProperties = parseURL(url, new Properties());
+            parsedURLs.putIfAbsent(url, urlProperties);
+        }
         if(info == null) {
             // create a properties obj if it is null
             info = new Properties();
@@ -120,39 +259,423 @@ public class Driver implements java.sql.Driver {
             //don't modify the original
             info = PropertiesUtils.clone(info);
         }
-        Properties p = parseURL(url, info);
-        String vdbName = initTeiid(p);
+        info.putAll(urlProperties);
+        return info;
+    }
+
+    /**
+     * Starts the engine and deploys the VDBs of the given URLs ahead of the first connections, deploying
+     * the VDBs of different URLs in parallel.
+     * @param info connection properties common to all the URLs, may be null
+     */
+    public static void preload(Properties info, String... urls) throws SQLException {
+        List<CompletableFuture<Void>> loads = new ArrayList<>(urls.length);
+        for (String url : urls) {
+            loads.add(CompletableFuture.runAsync(() -> {
+                try {
+                    Properties p = INSTANCE.connectionProperties(url, info);
+                    if (p == null) {
+                        throw new SQLException("Not an Infinispan JDBC URL " + url); //$NON-NLS-1$
+                    }
+                    deployedVDBs.put(url, INSTANCE.initTeiid(p));
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, DriverExecutionFactory.getExecutor()));
+        }
+        for (CompletableFuture<Void> load : loads) {
+            join(load);
+        }
+    }
+
+    private static <T> T join(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException(cause.getMessage(), cause);
+        }
+    }
 
-        ConnectionImpl myConnection = TEIID.getDriver()
-                .connect("jdbc:teiid:" + vdbName
-                        + ";useCallingThread=true;autoFailover=true;waitForLoad=5000;", info);
-        return myConnection;
+    /**
+     * Opens a local connection to a deployed VDB. With useCallingThread the work of a statement is done by
+     * the thread executing it, otherwise by the engine threads, which is needed for non-blocking execution.
+     */
+    ConnectionImpl connectTeiid(String vdbName, Properties info, boolean useCallingThread) throws SQLException {
+        String url = "jdbc:teiid:" + vdbName + ";useCallingThread=" + useCallingThread //$NON-NLS-1$ //$NON-NLS-2$
+                + ";autoFailover=true;waitForLoad=5000;"; //$NON-NLS-1$
+        if (Boolean.parseBoolean(getProperty(info, "resultCache", "false"))) { //$NON-NLS-1$ //$NON-NLS-2$
+            url += "resultSetCacheMode=true;"; //$NON-NLS-1$
+        }
+        TeiidServer server = TEIID;
+        if (server == null) {
+            throw new SQLException("The driver is shut down"); //$NON-NLS-1$
+        }
+        lastUsed.put(vdbName, System.currentTimeMillis());
+        return server.getDriver().connect(url, info);
     }
 
+    /**
+     * Deploys the VDB of the connection properties, starting the engine first if needed. Concurrent callers
+     * for the same VDB wait for the one deploying it, while VDBs of other caches deploy in parallel.
+     * @return the name of the VDB
+     */
     private String initTeiid(Properties p) throws SQLException {
         ClassLoader previous = Thread.currentThread().getContextClassLoader();
         try {
             Thread.currentThread().setContextClassLoader(this.getClass().getClassLoader());
-            if (TEIID == null) {
-                TEIID = teiidServer();
+            TeiidServer server = startTeiid(p);
+            String vdbName = vdbName(p);
+            CompletableFuture<String> deployment = new CompletableFuture<>();
+            CompletableFuture<String> existing;
+            // not while the VDB is being evicted
+            synchronized (deployments) {
+                existing = deployments.putIfAbsent(vdbName, deployment);
+            }
+            if (existing != null) {
+                return join(existing);
             }
-            if (!TEIID.hasConnectorManagerRepository(p.getProperty("cache"))) {
-                TEIID.addConnectionFactory(p.getProperty("cache"), buildConnectionFactory(p));
+            try {
+                deployment.complete(deploy(server, p, vdbName));
+            } catch (SQLException | RuntimeException e) {
+                // the next connection tries again
+                deployments.remove(vdbName, deployment);
+                deployment.completeExceptionally(e);
+                throw e;
             }
-            return buildAndDeployTeiidVDB(p, TEIID);
+            return vdbName;
         } finally {
             Thread.currentThread().setContextClassLoader(previous);
         }
     }
 
-    private InfinispanConnectionFactory buildConnectionFactory(Properties p) {
+    /**
+     * @return the engine, started by the first caller while the concurrent ones wait for it
+     */
+    private TeiidServer startTeiid(Properties p) throws SQLException {
+        TeiidServer server = TEIID;
+        if (server == null) {
+            synchronized (Driver.class) {
+                server = TEIID;
+                if (server == null) {
+                    server = teiidServer(p);
+                    TEIID = server;
+                    startReaper(p);
+                }
+            }
+        }
+        return server;
+    }
+
+    private String deploy(TeiidServer server, Properties p, String vdbName) throws SQLException {
+        List<CacheSource> sources = cacheSources(p);
+        Map<String, String> factories = new LinkedHashMap<>();
+        for (CacheSource source : sources) {
+            factories.put(source.modelName, source.jndiName);
+        }
+        // recorded before the factories are added, so that evicting another VDB does not close them
+        synchronized (deployments) {
+            vdbFactories.put(vdbName, factories);
+        }
+        try {
+            return deploySources(server, p, vdbName, sources);
+        } catch (SQLException | RuntimeException e) {
+            synchronized (deployments) {
+                vdbFactories.remove(vdbName, factories);
+            }
+            throw e;
+        }
+    }
+
+    private String deploySources(TeiidServer server, Properties p, String vdbName, List<CacheSource> sources)
+            throws SQLException {
+        List<CompletableFuture<Void>> connects = new ArrayList<>(sources.size());
+        for (CacheSource source : sources) {
+            checkNearCache(source.properties);
+            InfinispanConnectionFactory factory = server.addConnectionFactoryIfAbsent(source.jndiName,
+                    name -> buildConnectionFactory(source.properties, server));
+            if (sources.size() > 1) {
+                // connects to the caches of a list in parallel, the import then finds them connected
+                connects.add(CompletableFuture.runAsync(() -> {
+                    try {
+                        factory.getConnection();
+                    } catch (ResourceException e) {
+                        // reported by the import
+                    }
+                }, DriverExecutionFactory.getExecutor()));
+            }
+        }
+        for (CompletableFuture<Void> connect : connects) {
+            join(connect);
+        }
+        buildAndDeployTeiidVDB(p, sources, server);
+        if (Boolean.parseBoolean(getProperty(p, "resultCache", "false"))) { //$NON-NLS-1$ //$NON-NLS-2$
+            for (CacheSource source : sources) {
+                String model = vdbName + "." + source.modelName; //$NON-NLS-1$
+                if (invalidatedModels.add(model)) {
+                    try {
+                        server.getConnectionFactory(source.jndiName)
+                                .addClientListener(new ResultCacheInvalidator(server, vdbName, source.modelName));
+                    } catch (ResourceException e) {
+                        invalidatedModels.remove(model);
+                        throw new SQLException(e.getMessage(), e);
+                    }
+                }
+            }
+        }
+        return vdbName;
+    }
+
+    /**
+     * With "idleTimeout", evicts the VDBs that had no open connection for that many milliseconds.
+     */
+    private static void startReaper(Properties p) throws SQLException {
+        long idleTimeout;
+        try {
+            idleTimeout = Long.parseLong(getProperty(p, "idleTimeout", "0")); //$NON-NLS-1$ //$NON-NLS-2$
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid idleTimeout " + e.getMessage()); //$NON-NLS-1$
+        }
+        if (idleTimeout <= 0) {
+            return;
+        }
+        reaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "infinispan-jdbc-reaper"); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1000, idleTimeout / 2);
+        reaper.scheduleWithFixedDelay(() -> {
+            try {
+                evictIdle(idleTimeout);
+            } catch (Throwable e) {
+                logger.log(Level.WARNING, "Failed to evict the idle VDBs", e); //$NON-NLS-1$
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Undeploys the VDBs without sessions that were not connected to within the idle timeout, and closes the
+     * connection factories, with their Hot Rod clients, that no remaining VDB uses. The next connection
+     * deploys the VDB again.
+     */
+    static void evictIdle(long idleTimeout) throws AdminException {
+        TeiidServer server = TEIID;
+        if (server == null) {
+            return;
+        }
+        Set<String> active = new HashSet<>();
+        for (Session session : server.getAdmin().getSessions()) {
+            active.add(session.getVDBName());
+        }
+        long now = System.currentTimeMillis();
+        synchronized (deployments) {
+            for (Map.Entry<String, CompletableFuture<String>> entry : deployments.entrySet()) {
+                String vdbName = entry.getKey();
+                Long used = lastUsed.get(vdbName);
+                if (!entry.getValue().isDone() || active.contains(vdbName)
+                        || (used != null && now - used < idleTimeout)) {
+                    continue;
+                }
+                deployments.remove(vdbName);
+                Map<String, String> urls = new HashMap<>();
+                for (Map.Entry<String, String> deployed : deployedVDBs.entrySet()) {
+                    if (deployed.getValue().equals(vdbName)) {
+                        urls.put(deployed.getKey(), vdbName);
+                    }
+                }
+                deployedVDBs.keySet().removeAll(urls.keySet());
+                if (!Objects.equals(used, lastUsed.get(vdbName))) {
+                    // connected to meanwhile, maybe through the entries just removed
+                    deployments.put(vdbName, entry.getValue());
+                    deployedVDBs.putAll(urls);
+                    continue;
+                }
+                logger.info("Undeploying the idle VDB " + vdbName); //$NON-NLS-1$
+                undeploy(server, vdbName);
+            }
+        }
+    }
+
+    private static void undeploy(TeiidServer server, String vdbName) {
+        server.undeployVDB(vdbName);
+        lastUsed.remove(vdbName);
+        Map<String, String> factories = vdbFactories.remove(vdbName);
+        if (factories == null) {
+            return;
+        }
+        for (Map.Entry<String, String> model : factories.entrySet()) {
+            boolean used = false;
+            for (Map<String, String> other : vdbFactories.values()) {
+                used |= other.containsValue(model.getValue());
+            }
+            // the listeners of a factory that is kept keep invalidating the model once it is deployed again
+            InfinispanConnectionFactory factory = used ? null : server.removeConnectionFactory(model.getValue());
+            if (factory != null) {
+                factory.close();
+                invalidatedModels.remove(vdbName + "." + model.getKey()); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Undeploys all the VDBs, closes the Hot Rod clients and stops the engine. The next connection starts
+     * them again. With "shutdownHook" set to "true" this is done when the JVM exits.
+     */
+    public static void shutdown() {
+        synchronized (Driver.class) {
+            if (reaper != null) {
+                reaper.shutdownNow();
+                reaper = null;
+            }
+            TeiidServer server = TEIID;
+            if (server == null) {
+                return;
+            }
+            logger.info("Stopping Teiid Server."); //$NON-NLS-1$
+            synchronized (deployments) {
+                TEIID = null;
+                deployments.clear();
+                deployedVDBs.clear();
+                invalidatedModels.clear();
+                vdbFactories.clear();
+                lastUsed.clear();
+                server.stop();
+                for (InfinispanConnectionFactory factory : server.getConnectionFactories()) {
+                    factory.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * A cache of the URL, with the model and source it is mapped to in the VDB.
+     */
+    static class CacheSource {
+        final String modelName;
+        final String sourceName;
+        final String jndiName;
+        // the connection properties with the "cache", "host" and "port", "schema" and "protobuf" of this cache
+        final Properties properties;
+
+        CacheSource(String modelName, String sourceName, String jndiName, Properties properties) {
+            this.modelName = modelName;
+            this.sourceName = sourceName;
+            this.jndiName = jndiName;
+            this.properties = properties;
+        }
+    }
+
+    /**
+     * Splits the "cache" property, a comma separated list of "cache[@host[:port]]", into the sources of the
+     * VDB. A single cache keeps the "ispn" model of the earlier versions.
+     */
+    static List<CacheSource> cacheSources(Properties p) throws SQLException {
+        String caches = p.getProperty("cache"); //$NON-NLS-1$
+        if (caches == null || caches.trim().isEmpty()) {
+            throw new SQLException("No cache name is supplied in the URL"); //$NON-NLS-1$
+        }
+        String[] names = caches.split(","); //$NON-NLS-1$
+        List<CacheSource> sources = new ArrayList<>(names.length);
+        Set<String> modelNames = new HashSet<>();
+        for (String name : names) {
+            String cache = name.trim();
+            Properties cacheProperties = PropertiesUtils.clone(p);
+            int at = cache.indexOf('@');
+            if (at != -1) {
+                String server = cache.substring(at + 1).trim();
+                cache = cache.substring(0, at).trim();
+                int portidx = server.indexOf(':');
+                cacheProperties.setProperty("host", portidx == -1 ? server : server.substring(0, portidx)); //$NON-NLS-1$
+                cacheProperties.setProperty("port", portidx == -1 ? "11222" : server.substring(portidx + 1)); //$NON-NLS-1$ //$NON-NLS-2$
+                cacheProperties.setProperty("serverList", cacheProperties.getProperty("host") + ":" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                        + cacheProperties.getProperty("port")); //$NON-NLS-1$
+            }
+            cacheProperties.setProperty("cache", cache); //$NON-NLS-1$
+            for (String property : new String[] {"schema", "protobuf"}) { //$NON-NLS-1$ //$NON-NLS-2$
+                String value = p.getProperty(cache + "." + property); //$NON-NLS-1$
+                if (value != null) {
+                    cacheProperties.setProperty(property, value);
+                }
+            }
+            if (names.length == 1) {
+                sources.add(new CacheSource("ispn", p.getProperty("host"), cache, cacheProperties)); //$NON-NLS-1$ //$NON-NLS-2$
+                break;
+            }
+            String server = cacheProperties.getProperty("host") + ":" + cacheProperties.getProperty("port"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            String modelName = cache;
+            for (int i = 2; !modelNames.add(modelName); i++) {
+                modelName = cache + i;
+            }
+            String jndiName = at == -1 ? cache : cache + "@" + server; //$NON-NLS-1$
+            sources.add(new CacheSource(modelName, jndiName, jndiName, cacheProperties));
+        }
+        return sources;
+    }
+
+    /**
+     * @return the name of the VDB of the URL's caches, the cache name for a single cache
+     */
+    static String vdbName(Properties p) {
+        return p.getProperty("cache").replaceAll("\\s", "").replaceAll("[,@:]", "_"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    /**
+     * Rejects the near cache settings that {@link #buildConnectionFactory(Properties, TeiidServer)} could not
+     * apply, as it builds the factory where no SQLException can be thrown.
+     */
+    static void checkNearCache(Properties p) throws SQLException {
+        String mode = p.getProperty("nearCache"); //$NON-NLS-1$
+        if (mode != null) {
+            try {
+                NearCache.Mode.valueOf(mode.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("Invalid nearCache " + mode + ", must be disabled or invalidated"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        String policy = p.getProperty("nearCacheEvictionPolicy"); //$NON-NLS-1$
+        if (policy != null) {
+            try {
+                NearCache.EvictionPolicy.valueOf(policy.toUpperCase());
+            } catch (IllegalArgumentException e) {
+                throw new SQLException("Invalid nearCacheEvictionPolicy " + policy + ", must be lru or fifo"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+        String maxEntries = p.getProperty("nearCacheMaxEntries"); //$NON-NLS-1$
+        if (maxEntries != null) {
+            try {
+                if (Integer.parseInt(maxEntries) <= 0) {
+                    throw new SQLException("Invalid nearCacheMaxEntries " + maxEntries + ", must be positive"); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            } catch (NumberFormatException e) {
+                throw new SQLException("Invalid nearCacheMaxEntries " + e.getMessage()); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private static InfinispanConnectionFactory buildConnectionFactory(Properties p, TeiidServer teiid) {
         InfinispanConnectionFactory factory = new InfinispanConnectionFactory();
         factory.setCacheName(p.getProperty("cache"));
-        String server = p.getProperty("host");
-        if (p.getProperty("port") != null) {
-            server = server + ":" + p.getProperty("port");
+        String server = p.getProperty("serverList");
+        if (server == null) {
+            server = p.getProperty("host");
+            if (p.getProperty("port") != null) {
+                server = server + ":" + p.getProperty("port");
+            }
         }
         factory.setRemoteServerList(server);
+        if (p.getProperty("clientIntelligence") != null) {
+            factory.setClientIntelligence(p.getProperty("clientIntelligence"));
+        }
+        if (p.getProperty("balancingStrategy") != null) {
+            factory.setBalancingStrategy(p.getProperty("balancingStrategy"));
+        }
         if (p.getProperty("username") != null) {
             factory.setUserName(p.getProperty("username"));
         }
@@ -168,8 +691,21 @@ public class Driver implements java.sql.Driver {
         if (p.getProperty("authenticationServerName") != null) {
             factory.setAuthenticationServerName(p.getProperty("authenticationServerName"));
         }
-        if (this.config.getTransactionManager() != null) {
-            factory.setTransactionManager(this.config.getTransactionManager());
+        if (p.getProperty("nearCache") != null) {
+            factory.setNearCacheMode(NearCache.Mode.valueOf(p.getProperty("nearCache").toUpperCase()));
+        }
+        if (p.getProperty("nearCacheMaxEntries") != null) {
+            factory.setNearCacheMaxEntries(Integer.parseInt(p.getProperty("nearCacheMaxEntries")));
+        }
+        if (p.getProperty("nearCacheEvictionPolicy") != null) {
+            factory.setNearCacheEvictionPolicy(
+                    NearCache.EvictionPolicy.valueOf(p.getProperty("nearCacheEvictionPolicy").toUpperCase()));
+        }
+        if (p.getProperty("cacheTemplate") != null) {
+            factory.setCacheTemplate(p.getProperty("cacheTemplate"));
+        }
+        if (teiid.getConfiguration().getTransactionManager() != null) {
+            factory.setTransactionManager(teiid.getConfiguration().getTransactionManager());
         }
         return factory;
     }
@@ -244,12 +780,29 @@ public class Driver implements java.sql.Driver {
         schema.description = "Schema of the cache to create. This can be .proto or .ddl files";
         schema.required = false;
 
+        DriverPropertyInfo nearCache = new DriverPropertyInfo("nearCache", info.getProperty("nearCache"));
+        nearCache.description = "Near cache mode for primary key lookups";
+        nearCache.required = false;
+        nearCache.choices = new String[] {"DISABLED", "INVALIDATED"};
+
+        DriverPropertyInfo nearCacheMaxEntries = new DriverPropertyInfo("nearCacheMaxEntries", info.getProperty("nearCacheMaxEntries"));
+        nearCacheMaxEntries.description = "Maximum number of entries in the near cache";
+        nearCacheMaxEntries.required = false;
+
+        DriverPropertyInfo nearCacheEvictionPolicy = new DriverPropertyInfo("nearCacheEvictionPolicy", info.getProperty("nearCacheEvictionPolicy"));
+        nearCacheEvictionPolicy.description = "Eviction policy of the near cache";
+        nearCacheEvictionPolicy.required = false;
+        nearCacheEvictionPolicy.choices = new String[] {"LRU", "FIFO"};
+
         driverProps.add(protobuf);
         driverProps.add(username);
         driverProps.add(password);
         driverProps.add(saslMechanism);
         driverProps.add(authenticationServerName);
         driverProps.add(authenticationRealm);
+        driverProps.add(nearCache);
+        driverProps.add(nearCacheMaxEntries);
+        driverProps.add(nearCacheEvictionPolicy);
 
         // create an array of DriverPropertyInfo objects
         DriverPropertyInfo [] propInfo = new DriverPropertyInfo[driverProps.size()];
@@ -286,14 +839,29 @@ public class Driver implements java.sql.Driver {
                 p.setProperty("cache", cache);
                 connectionURL = connectionURL.substring(0, idx);
             }
-            int portidx = connectionURL.indexOf(':');
-            if (portidx != -1) {
-                p.setProperty("port", connectionURL.substring(portidx+1).trim());
-                p.setProperty("host", connectionURL.substring(0, portidx).trim());
-            } else {
-                p.setProperty("port", "11222");
-                p.setProperty("host", connectionURL.trim());
+            // a list of servers, the first one is also the host and port of the URL
+            StringBuilder serverList = new StringBuilder();
+            for (String server : connectionURL.split(",")) { //$NON-NLS-1$
+                server = server.trim();
+                if (server.isEmpty()) {
+                    continue;
+                }
+                String host = server;
+                String port = "11222"; //$NON-NLS-1$
+                int portidx = server.indexOf(':');
+                if (portidx != -1) {
+                    port = server.substring(portidx+1).trim();
+                    host = server.substring(0, portidx).trim();
+                }
+                if (serverList.length() == 0) {
+                    p.setProperty("port", port);
+                    p.setProperty("host", host);
+                } else {
+                    serverList.append(';');
+                }
+                serverList.append(host).append(':').append(port);
             }
+            p.setProperty("serverList", serverList.toString()); //$NON-NLS-1$
         }
 
         String props = m.group(2);
@@ -333,6 +901,37 @@ public class Driver implements java.sql.Driver {
         p.setProperty(getValidValue(key), getValidValue(value));
     }
 
+    /**
+     * Returns the connection property, falling back to the system property prefixed with
+     * "io.infinispan.jdbc." and then to the given default value.
+     */
+    static String getProperty(Properties p, String name, String defaultValue) {
+        String value = p == null ? null : p.getProperty(name);
+        if (value == null) {
+            value = System.getProperty(SYSTEM_PROPERTY_PREFIX + name, defaultValue);
+        }
+        return value;
+    }
+
+    /**
+     * @return the engine cache with given name, like "resultset" or "preparedplan", with its hit, miss and
+     * eviction counters; null if the engine is not started or the cache is not used yet.
+     */
+    public static ConcurrentLocalCache<?, ?> getEngineCache(String name) {
+        TeiidServer server = TEIID;
+        return server == null ? null : server.getCache(name);
+    }
+
+    /**
+     * @return the near cache of the given cache with its hit and miss statistics, null if the near cache is
+     * not enabled or no connection was made to the cache yet.
+     */
+    public static NearCache getNearCache(String cacheName) {
+        TeiidServer server = TEIID;
+        InfinispanConnectionFactory factory = server == null ? null : server.getConnectionFactory(cacheName);
+        return factory == null ? null : factory.getNearCache();
+    }
+
     private static String getValidValue(String value) {
         try {
             // Decode the value of the property if incase they were encoded.
@@ -357,7 +956,7 @@ public class Driver implements java.sql.Driver {
         return logger;
     }
 
-    private TeiidServer teiidServer() throws SQLException {
+    private TeiidServer teiidServer(Properties p) throws SQLException {
         logger.info("Starting Teiid Server.");
 
         // turning off PostgreSQL support
@@ -365,80 +964,226 @@ public class Driver implements java.sql.Driver {
 
         final TeiidServer server = new TeiidServer();
 
-        this.config = new EmbeddedConfiguration();
-        this.config.setUseDisk(false);
-        this.config.setCacheFactory(new CacheFactory() {
-            @Override
-            public <K, V> Cache<K, V> get(String name) {
-                return new LocalCache<>(name, 10);
-            }
-            @Override
-            public void destroy() {
-            }
-        });
+        EmbeddedConfiguration config = new EmbeddedConfiguration();
+        configureBuffers(p, config);
+        configureThreads(p, config);
+        config.setCacheFactory(new LocalCacheFactory(p));
 
         /*try {
             Class<?> clazz = Class.forName(transactionManagerClassName);
             if (clazz != null) {
-                this.config.setTransactionManager((javax.transaction.TransactionManager)clazz.newInstance());
+                config.setTransactionManager((javax.transaction.TransactionManager)clazz.newInstance());
             }
         } catch (Exception e) {
             // ignore
             logger.info("No transaction manager found, ignoring transactions");
         }*/
 
-        server.start(this.config);
-        server.addTranslator("infinispan-hotrod", new InfinispanExecutionFactory());
+        server.start(config);
+        server.addTranslator("infinispan-hotrod", new DriverExecutionFactory());
+        if (Boolean.parseBoolean(getProperty(p, "shutdownHook", "false"))) { //$NON-NLS-1$ //$NON-NLS-2$
+            Runtime.getRuntime().addShutdownHook(new Thread(Driver::shutdown, "infinispan-jdbc-shutdown")); //$NON-NLS-1$
+        }
         return server;
     }
 
-    private String buildAndDeployTeiidVDB(Properties p, TeiidServer ts) throws SQLException {
+    /**
+     * Sets where the engine keeps the batches of large results, sorts and joins. "heap" keeps all of them on
+     * the Java heap, "offheap" keeps them in a fixed size direct memory buffer and spills to disk when that
+     * is full, "disk" keeps only a small memory buffer in front of the buffer files.
+     */
+    static void configureBuffers(Properties p, EmbeddedConfiguration config) throws SQLException {
+        String storage = getProperty(p, "bufferStorage", "heap"); //$NON-NLS-1$ //$NON-NLS-2$
+        String memory = getProperty(p, "bufferMemory", null); //$NON-NLS-1$
+        String maxDisk = getProperty(p, "bufferMaxDisk", null); //$NON-NLS-1$
         try {
-            String schema = "";
-            String metadata = "";
-            if (p.getProperty("protobuf") == null) {
-                if (p.getProperty("schema") != null && p.getProperty("schema").endsWith(".proto")) {
-                    schema = "        <property name=\"importer.ProtoFilePath\" value=\"{schema}\"/>\n";
-                    metadata = "        <metadata type = \"NATIVE\"/>\n";
-                } else if (p.getProperty("schema") != null && p.getProperty("schema").endsWith(".ddl")) {
-                    String ddl = ObjectConverterUtil.convertToString(new FileReader(p.getProperty("schema")));
-                    metadata = "        <metadata type = \"DDL\"><![CDATA[\n" +
-                            ddl +
-                            "        ]]>\n" +
-                            "       </metadata>\n" +
-                            "       <metadata type = \"NATIVE\"/>";
-                } else {
-                    throw new SQLException("No protobuf nor schema information is supplied. Must define protobuf or schema proeprties");
+            if (storage.equalsIgnoreCase("heap")) { //$NON-NLS-1$
+                config.setUseDisk(false);
+                return;
+            } else if (storage.equalsIgnoreCase("offheap")) { //$NON-NLS-1$
+                config.setUseDisk(true);
+                config.setMemoryBufferOffHeap(true);
+                config.setMemoryBufferSpace(memory == null ? 256 : Integer.parseInt(memory));
+            } else if (storage.equalsIgnoreCase("disk")) { //$NON-NLS-1$
+                config.setUseDisk(true);
+                config.setMemoryBufferOffHeap(false);
+                if (memory != null) {
+                    config.setMemoryBufferSpace(Integer.parseInt(memory));
                 }
             } else {
-                schema = "        <property name=\"importer.ProtobufName\" value=\"{protobuf}\"/>\n";
-                metadata = "        <metadata type = \"NATIVE\"/>\n";
+                throw new SQLException("Invalid bufferStorage " + storage + ", must be heap, offheap or disk"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (maxDisk != null) {
+                config.setMaxBufferSpace(Long.parseLong(maxDisk));
+            }
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid buffer size " + e.getMessage()); //$NON-NLS-1$
+        }
+        String dir = getProperty(p, "bufferDirectory", null); //$NON-NLS-1$
+        if (dir == null) {
+            dir = new File(System.getProperty("java.io.tmpdir"), "infinispan-jdbc-" + UUID.randomUUID()).getAbsolutePath(); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        config.setBufferDirectory(dir);
+    }
+
+    /**
+     * Sizes the engine worker pool. The pool runs the statements of connections that do not use the calling
+     * thread, and "parallelism" bounds how many source queries of one statement, like the sides of a join or
+     * the branches of a UNION, run at the same time on it.
+     */
+    static void configureThreads(Properties p, EmbeddedConfiguration config) throws SQLException {
+        try {
+            String maxThreads = getProperty(p, "maxThreads", null); //$NON-NLS-1$
+            if (maxThreads != null) {
+                config.setMaxThreads(Integer.parseInt(maxThreads));
+            }
+            String parallelism = getProperty(p, "parallelism", null); //$NON-NLS-1$
+            if (parallelism != null) {
+                config.setUserRequestSourceConcurrency(Integer.parseInt(parallelism));
+            }
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid thread count " + e.getMessage()); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Returns how much memory and disk the engine buffers use. "engineMemoryKb" and "activePlanMemoryKb" are
+     * the batches held on the heap, "diskUsedMb", "diskReadCount" and "diskWriteCount" the buffer files, and
+     * "directBufferBytes" and "mappedBufferBytes" the JVM's direct and memory mapped buffer pools, which
+     * include the off heap buffer.
+     */
+    public static Map<String, Long> getBufferUsage() throws SQLException {
+        Map<String, Long> usage = new LinkedHashMap<>();
+        TeiidServer server = TEIID;
+        if (server != null) {
+            try {
+                for (EngineStatistics stats : server.getAdmin().getEngineStats()) {
+                    usage.put("engineMemoryKb", (long) stats.getTotalMemoryUsedInKB()); //$NON-NLS-1$
+                    usage.put("activePlanMemoryKb", (long) stats.getMemoryUsedByActivePlansInKB()); //$NON-NLS-1$
+                    usage.put("diskUsedMb", (long) stats.getDiskSpaceUsedInMB()); //$NON-NLS-1$
+                    usage.put("diskReadCount", (long) stats.getDiskReadCount()); //$NON-NLS-1$
+                    usage.put("diskWriteCount", (long) stats.getDiskWriteCount()); //$NON-NLS-1$
+                }
+            } catch (AdminException e) {
+                throw new SQLException(e.getMessage());
+            }
+        }
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) { //$NON-NLS-1$
+                usage.put("directBufferBytes", pool.getMemoryUsed()); //$NON-NLS-1$
+            } else if (pool.getName().equals("mapped")) { //$NON-NLS-1$
+                usage.put("mappedBufferBytes", pool.getMemoryUsed()); //$NON-NLS-1$
             }
+        }
+        return usage;
+    }
 
-            String vdb =
-                    "<vdb name=\"{cache}\" version=\"1\">\n" +
-                    "    <model name=\"ispn\">\n" +
-                    schema +
-                    "        <source name=\"{host}\" translator-name=\"infinispan-hotrod\" connection-jndi-name=\"{cache}\"/>\n" +
-                    metadata +
-                    "    </model>\n" +
-                    "</vdb>";
-            vdb = vdb.replace("{cache}", p.getProperty("cache"));
-            vdb = vdb.replace("{host}", p.getProperty("host"));
-            vdb = vdb.replace("{protobuf}", p.getProperty("protobuf", ""));
-            vdb = vdb.replace("{schema}", p.getProperty("schema", ""));
-
-            VDB v = ts.getAdmin().getVDB(p.getProperty("cache"), "1");
+    private String buildAndDeployTeiidVDB(Properties p, List<CacheSource> sources, TeiidServer ts) throws SQLException {
+        String vdbName = vdbName(p);
+        try {
+            VDB v = ts.getAdmin().getVDB(vdbName, "1");
             if (v == null) {
-                ts.deployVDB(new ByteArrayInputStream(vdb.getBytes()));
+                String vdb = buildVDB(vdbName, p, sources, null);
+                MetadataSnapshot snapshot = MetadataSnapshot.of(p, vdbName);
+                if (snapshot == null) {
+                    ts.deployVDB(new ByteArrayInputStream(vdb.getBytes()));
+                } else {
+                    String hash = MetadataSnapshot.hash(vdb, sources, ts);
+                    List<String> ddl = snapshot.load(hash, sources, ts);
+                    if (ddl != null) {
+                        ts.deployVDB(new ByteArrayInputStream(buildVDB(vdbName, p, sources, ddl).getBytes()));
+                    } else {
+                        ts.deployVDB(new ByteArrayInputStream(vdb.getBytes()));
+                        snapshot.save(hash, vdbName, sources, ts);
+                    }
+                }
+            }
+            if (logger.isLoggable(Level.FINER)) {
+                for (CacheSource source : sources) {
+                    logger.finer(ts.getAdmin().getSchema(vdbName, "1", source.modelName, null, null));
+                }
             }
-            logger.finer(ts.getAdmin().getSchema(p.getProperty("cache"), "1", "ispn", null, null));
         } catch (VirtualDatabaseException | ConnectorManagerException | TranslatorException | IOException
                 | AdminException e) {
             throw new SQLException(e.getMessage());
         }
-        return p.getProperty("cache");
+        return vdbName;
+    }
+
+    /**
+     * @return the translator override properties of the VDB, from the connection properties that tune the
+     * {@link DriverExecutionFactory}
+     */
+    private static String translatorProperties(Properties p) {
+        StringBuilder sb = new StringBuilder();
+        for (String[] property : TRANSLATOR_PROPERTIES) {
+            String value = getProperty(p, property[0], null);
+            if (value != null) {
+                sb.append("        <property name=\"").append(property[1]).append("\" value=\"") //$NON-NLS-1$ //$NON-NLS-2$
+                        .append(value).append("\"/>\n"); //$NON-NLS-1$
+            }
+        }
+        return sb.toString();
     }
-}
 
+    /**
+     * @param ddl the DDL of each source from a metadata snapshot, null to import the metadata of the caches
+     */
+    private String buildVDB(String vdbName, Properties p, List<CacheSource> sources, List<String> ddl)
+            throws SQLException, IOException {
+        StringBuilder vdb = new StringBuilder();
+        vdb.append("<vdb name=\"").append(vdbName).append("\" version=\"1\">\n");
+        for (int i = 0; i < sources.size(); i++) {
+            vdb.append(buildModel(sources.get(i), vdbName + "-hotrod", ddl == null ? null : ddl.get(i)));
+        }
+        vdb.append("    <translator name=\"").append(vdbName).append("-hotrod\" type=\"infinispan-hotrod\">\n");
+        vdb.append(translatorProperties(p));
+        vdb.append("    </translator>\n");
+        vdb.append("</vdb>");
+        return vdb.toString();
+    }
 
+    private String buildModel(CacheSource source, String translatorName, String ddl) throws SQLException, IOException {
+        Properties p = source.properties;
+        String schema = "";
+        String metadata = "";
+        if (ddl != null) {
+            metadata = "        <metadata type = \"DDL\"><![CDATA[\n" +
+                    ddl +
+                    "        ]]>\n" +
+                    "       </metadata>\n";
+        } else if (p.getProperty("protobuf") == null) {
+            if (p.getProperty("schema") != null && p.getProperty("schema").endsWith(".proto")) {
+                schema = "        <property name=\"importer.ProtoFilePath\" value=\"{schema}\"/>\n";
+                metadata = "        <metadata type = \"NATIVE\"/>\n";
+            } else if (p.getProperty("schema") != null && p.getProperty("schema").endsWith(".ddl")) {
+                String ddl = ObjectConverterUtil.convertToString(new FileReader(p.getProperty("schema")));
+                metadata = "        <metadata type = \"DDL\"><![CDATA[\n" +
+                        ddl +
+                        "        ]]>\n" +
+                        "       </metadata>\n" +
+                        "       <metadata type = \"NATIVE\"/>";
+            } else {
+                throw new SQLException("No protobuf nor schema information is supplied for cache " + p.getProperty("cache")
+                        + ". Must define protobuf or schema proeprties");
+            }
+        } else {
+            schema = "        <property name=\"importer.ProtobufName\" value=\"{protobuf}\"/>\n";
+            metadata = "        <metadata type = \"NATIVE\"/>\n";
+        }
+
+        String model =
+                "    <model name=\"{model}\">\n" +
+                schema +
+                "        <source name=\"{source}\" translator-name=\"{translator}\" connection-jndi-name=\"{jndi}\"/>\n" +
+                metadata +
+                "    </model>\n";
+        model = model.replace("{model}", source.modelName);
+        model = model.replace("{source}", source.sourceName);
+        model = model.replace("{translator}", translatorName);
+        model = model.replace("{jndi}", source.jndiName);
+        model = model.replace("{protobuf}", p.getProperty("protobuf", ""));
+        model = model.replace("{schema}", p.getProperty("schema", ""));
+        return model;
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.teiid.infinispan.api.InfinispanConnection;
+import org.teiid.language.Command;
+import org.teiid.language.Delete;
+import org.teiid.language.Insert;
+import org.teiid.language.QueryExpression;
+import org.teiid.metadata.RuntimeMetadata;
+import org.teiid.translator.ExecutionContext;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.Translator;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.TranslatorProperty;
+import org.teiid.translator.UpdateExecution;
+import org.teiid.translator.infinispan.hotrod.InfinispanExecutionFactory;
+
+import io.infinispan.data.InfinispanConnectionImpl;
+import io.infinispan.data.MarshallerScope;
+
+/**
+ * The "infinispan-hotrod" translator used by the driver. It adds the driver specific execution strategies
+ * on top of the stock Infinispan translator; each VDB deployed by the driver overrides it with the
+ * properties given on the connection URL.
+ */
+@Translator(name = "infinispan-hotrod", description = "Infinispan Hot Rod translator used by the Infinispan JDBC driver")
+public class DriverExecutionFactory extends InfinispanExecutionFactory {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static volatile ExecutorService executor;
+
+    private boolean streaming;
+    private int fetchSize;
+    private int writeBatchSize = 1000;
+    private int writeConcurrency = 4;
+    private boolean keyLookup = true;
+    private boolean aggregatePushdown = true;
+    private boolean serverSideDelete;
+    private boolean projectedDecoding = true;
+    private String distributedResultCache;
+    private long distributedResultCacheTtl = 60000;
+    private int distributedResultCacheMaxRows = 10000;
+
+    @TranslatorProperty(display = "Streaming", description = "Fetch the next page of a query in the background while the current page is read", advanced = true)
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    @TranslatorProperty(display = "Fetch Size", description = "Number of entries fetched with each remote query page, by default the engine batch size", advanced = true)
+    public int getFetchSize() {
+        return this.fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
+    @TranslatorProperty(display = "Write Batch Size", description = "Number of rows of a batched INSERT or UPSERT written with each putAll", advanced = true)
+    public int getWriteBatchSize() {
+        return this.writeBatchSize;
+    }
+
+    public void setWriteBatchSize(int writeBatchSize) {
+        this.writeBatchSize = writeBatchSize;
+    }
+
+    @TranslatorProperty(display = "Write Concurrency", description = "Number of write batches of a batched INSERT or UPSERT in flight at the same time, 1 to write them one after the other", advanced = true)
+    public int getWriteConcurrency() {
+        return this.writeConcurrency;
+    }
+
+    public void setWriteConcurrency(int writeConcurrency) {
+        this.writeConcurrency = writeConcurrency;
+    }
+
+    @TranslatorProperty(display = "Key Lookup", description = "Read the rows of primary key equality and IN queries with key lookups instead of queries", advanced = true)
+    public boolean isKeyLookup() {
+        return this.keyLookup;
+    }
+
+    public void setKeyLookup(boolean keyLookup) {
+        this.keyLookup = keyLookup;
+    }
+
+    @TranslatorProperty(display = "Aggregate Pushdown", description = "Compute COUNT, SUM, AVG, MIN, MAX, GROUP BY and HAVING with remote queries instead of reading all the matching entries", advanced = true)
+    public boolean isAggregatePushdown() {
+        return this.aggregatePushdown;
+    }
+
+    public void setAggregatePushdown(boolean aggregatePushdown) {
+        this.aggregatePushdown = aggregatePushdown;
+    }
+
+    @TranslatorProperty(display = "Server Side Delete", description = "Remove the entries matched by a DELETE with a server task instead of reading their keys", advanced = true)
+    public boolean isServerSideDelete() {
+        return this.serverSideDelete;
+    }
+
+    public void setServerSideDelete(boolean serverSideDelete) {
+        this.serverSideDelete = serverSideDelete;
+    }
+
+    @TranslatorProperty(display = "Projected Decoding", description = "Decode only the fields of the columns a query uses from the entries it reads", advanced = true)
+    public boolean isProjectedDecoding() {
+        return this.projectedDecoding;
+    }
+
+    public void setProjectedDecoding(boolean projectedDecoding) {
+        this.projectedDecoding = projectedDecoding;
+    }
+
+    @TranslatorProperty(display = "Distributed Result Cache", description = "Name of the remote cache sharing the results of source queries with the other clients, created from the cache template when missing; not set to disable", advanced = true)
+    public String getDistributedResultCache() {
+        return this.distributedResultCache;
+    }
+
+    public void setDistributedResultCache(String distributedResultCache) {
+        this.distributedResultCache = distributedResultCache;
+    }
+
+    @TranslatorProperty(display = "Distributed Result Cache TTL", description = "Time to live in milliseconds of a result in the distributed result cache", advanced = true)
+    public long getDistributedResultCacheTtl() {
+        return this.distributedResultCacheTtl;
+    }
+
+    public void setDistributedResultCacheTtl(long distributedResultCacheTtl) {
+        this.distributedResultCacheTtl = distributedResultCacheTtl;
+    }
+
+    @TranslatorProperty(display = "Distributed Result Cache Max Rows", description = "Maximum number of rows of a result stored in the distributed result cache", advanced = true)
+    public int getDistributedResultCacheMaxRows() {
+        return this.distributedResultCacheMaxRows;
+    }
+
+    public void setDistributedResultCacheMaxRows(int distributedResultCacheMaxRows) {
+        this.distributedResultCacheMaxRows = distributedResultCacheMaxRows;
+    }
+
+    @Override
+    public boolean supportsBulkUpdate() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsAggregatesCount() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsAggregatesCountStar() {
+        // Ickle has no COUNT(*), and capabilities can not tell the tables that have a key to count apart
+        return false;
+    }
+
+    @Override
+    public boolean supportsAggregatesSum() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsAggregatesAvg() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsAggregatesMin() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsAggregatesMax() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsGroupBy() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsHaving() {
+        return this.aggregatePushdown;
+    }
+
+    @Override
+    public boolean supportsOrderBy() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsRowLimit() {
+        return true;
+    }
+
+    @Override
+    public boolean supportsRowOffset() {
+        return true;
+    }
+
+    @Override
+    public UpdateExecution createUpdateExecution(Command command, ExecutionContext executionContext,
+            RuntimeMetadata metadata, InfinispanConnection connection) throws TranslatorException {
+        if (this.serverSideDelete && command instanceof Delete && connection instanceof InfinispanConnectionImpl) {
+            String query = ServerDeleteExecution.keyQuery((Delete) command);
+            if (query != null) {
+                return new ServerDeleteExecution(query, (InfinispanConnectionImpl) connection,
+                        () -> super.createUpdateExecution(command, executionContext, metadata, connection));
+            }
+        }
+        if (this.writeConcurrency > 1 && BatchedInsertExecution.supports(command)) {
+            return new BatchedInsertExecution((Insert) command, executionContext, chunk -> super
+                    .createUpdateExecution(chunk, withBatchSize(executionContext, this.writeBatchSize), metadata, connection),
+                    getExecutor(), this.writeBatchSize, this.writeConcurrency);
+        }
+        return super.createUpdateExecution(command, executionContext, metadata, connection);
+    }
+
+    @Override
+    public ResultSetExecution createResultSetExecution(QueryExpression command, ExecutionContext executionContext,
+            RuntimeMetadata metadata, InfinispanConnection connection) throws TranslatorException {
+        if (this.keyLookup) {
+            KeyLookupPushdownExecution lookup = KeyLookupPushdownExecution.create(command, metadata, connection);
+            if (lookup != null) {
+                return lookup;
+            }
+        }
+        Class<?>[] aggregateTypes = AggregateExecution.aggregateTypes(command);
+        ExecutionContext context = executionContext;
+        if (this.fetchSize > 0) {
+            context = withBatchSize(executionContext, this.fetchSize);
+        }
+        ResultSetExecution execution = super.createResultSetExecution(command, context, metadata, connection);
+        // the marshallers the execution registers go with it to the threads reading it, like the prefetching one
+        Map<String, BitSet> projection = this.projectedDecoding ? ScopedExecution.projection(command) : null;
+        execution = new ScopedExecution(execution, new MarshallerScope(projection));
+        if (aggregateTypes != null) {
+            execution = new AggregateExecution(execution, aggregateTypes);
+        }
+        if (this.streaming) {
+            execution = new PrefetchingExecution(execution, getExecutor(), context.getBatchSize());
+        }
+        if (this.distributedResultCache != null) {
+            execution = new DistributedResultCache(this.distributedResultCache, this.distributedResultCacheTtl,
+                    this.distributedResultCacheMaxRows).wrap(command, execution, connection);
+        }
+        return execution;
+    }
+
+    /**
+     * The translator pages remote queries by {@link ExecutionContext#getBatchSize()}, this context reports
+     * the configured fetch size instead.
+     */
+    static ExecutionContext withBatchSize(ExecutionContext context, int batchSize) {
+        return (ExecutionContext) Proxy.newProxyInstance(ExecutionContext.class.getClassLoader(),
+                new Class<?>[] { ExecutionContext.class }, (proxy, method, args) -> {
+                    if (method.getName().equals("getBatchSize") && method.getParameterCount() == 0) { //$NON-NLS-1$
+                        return batchSize;
+                    }
+                    try {
+                        return method.invoke(context, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * @return the executor of the background work of the executions; the work is bounded by each execution,
+     * like one thread per streaming query, so the pool itself is not
+     */
+    static ExecutorService getExecutor() {
+        ExecutorService result = executor;
+        if (result == null) {
+            synchronized (DriverExecutionFactory.class) {
+                result = executor;
+                if (result == null) {
+                    // idle threads go away after a minute
+                    result = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+                            new SynchronousQueue<Runnable>(), r -> {
+                                Thread t = new Thread(r, "infinispan-jdbc-worker-" + THREAD_COUNT.incrementAndGet()); //$NON-NLS-1$
+                                t.setDaemon(true);
+                                return t;
+                            });
+                    executor = result;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.teiid.core.util.PropertiesUtils;
+import org.teiid.jdbc.ConnectionImpl;
+import org.teiid.jdbc.RequestOptions;
+import org.teiid.jdbc.StatementCallback;
+import org.teiid.jdbc.TeiidPreparedStatement;
+
+/**
+ * Non-blocking statement execution. The statements are processed by the engine threads and the rows are
+ * pushed to the caller, so no caller thread waits for a query to finish. Get one from a connection of the
+ * driver with {@link #of(Connection)}, or with {@code unwrap(InfinispanAsyncConnection.class)} on a
+ * connection of the {@link InfinispanDataSource}.
+ * <pre>
+ *    InfinispanAsyncConnection async = InfinispanAsyncConnection.of(connection);
+ *    async.query("SELECT e1, e2 FROM G1 WHERE e1 &gt; ?", 10).thenAccept(rows -&gt; ...);
+ * </pre>
+ */
+public class InfinispanAsyncConnection implements AutoCloseable {
+    private final ConnectionImpl connection;
+
+    InfinispanAsyncConnection(ConnectionImpl connection) {
+        this.connection = connection;
+    }
+
+    /**
+     * Opens a non-blocking connection to the same cache as the given connection. Unless the connection is
+     * pooled, the caller must close the returned connection.
+     */
+    public static InfinispanAsyncConnection of(Connection connection) throws SQLException {
+        if (connection.isWrapperFor(InfinispanAsyncConnection.class)) {
+            return connection.unwrap(InfinispanAsyncConnection.class);
+        }
+        ConnectionImpl teiid = connection.unwrap(ConnectionImpl.class);
+        return new InfinispanAsyncConnection(Driver.getInstance().connectTeiid(teiid.getVDBName(),
+                PropertiesUtils.clone(teiid.getExecutionProperties()), false));
+    }
+
+    /**
+     * Executes the query and collects all its rows. Cancelling the future cancels the query.
+     */
+    public CompletableFuture<List<List<Object>>> query(String sql, Object... parameters) {
+        List<List<Object>> rows = new ArrayList<>();
+        CompletableFuture<Long> query = forEach(sql, rows::add, parameters);
+        CompletableFuture<List<List<Object>>> result = query.thenApply(count -> rows);
+        // a dependent future does not cancel the one it depends on
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                query.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Executes the query and passes each row to the action as soon as it is available, on an engine thread.
+     * The future completes with the number of rows once all of them were passed, or exceptionally when the
+     * query or the action fails. Cancelling the future cancels the query.
+     */
+    public CompletableFuture<Long> forEach(String sql, Consumer<List<Object>> action, Object... parameters) {
+        AtomicLong count = new AtomicLong();
+        return submit(sql, parameters, rs -> {
+            int columns = rs.getMetaData().getColumnCount();
+            List<Object> row = new ArrayList<>(columns);
+            for (int i = 1; i <= columns; i++) {
+                row.add(rs.getObject(i));
+            }
+            action.accept(row);
+            count.incrementAndGet();
+        }, s -> count.get());
+    }
+
+    /**
+     * Executes the INSERT, UPDATE, UPSERT or DELETE statement.
+     * @return the future update count
+     */
+    public CompletableFuture<Integer> update(String sql, Object... parameters) {
+        return submit(sql, parameters, rs -> {}, s -> s.getUpdateCount());
+    }
+
+    private interface RowHandler {
+        void onRow(ResultSet rs) throws Exception;
+    }
+
+    private interface Completion<T> {
+        T complete(Statement s) throws Exception;
+    }
+
+    private <T> CompletableFuture<T> submit(String sql, Object[] parameters, RowHandler rows, Completion<T> completion) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        PreparedStatement ps = null;
+        try {
+            ps = this.connection.prepareStatement(sql);
+            for (int i = 0; i < parameters.length; i++) {
+                ps.setObject(i + 1, parameters[i]);
+            }
+            PreparedStatement statement = ps;
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    try {
+                        statement.cancel();
+                    } catch (SQLException ex) {
+                        // ignore, the query is closed anyway
+                    }
+                }
+            });
+            ps.unwrap(TeiidPreparedStatement.class).submitExecute(new StatementCallback() {
+                @Override
+                public void onRow(Statement s, ResultSet rs) throws Exception {
+                    rows.onRow(rs);
+                }
+
+                @Override
+                public void onException(Statement s, Exception e) throws Exception {
+                    s.close();
+                    result.completeExceptionally(e);
+                }
+
+                @Override
+                public void onComplete(Statement s) throws Exception {
+                    try {
+                        result.complete(completion.complete(s));
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    } finally {
+                        s.close();
+                    }
+                }
+            }, new RequestOptions());
+        } catch (SQLException e) {
+            // not submitted, so no callback closes it
+            if (ps != null) {
+                try {
+                    ps.close();
+                } catch (SQLException ex) {
+                    e.addSuppressed(ex);
+                }
+            }
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    public boolean isClosed() throws SQLException {
+        return this.connection.isClosed();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        this.connection.close();
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+
+import org.teiid.jdbc.ConnectionImpl;
+
+/**
+ * DataSource for the Infinispan JDBC Driver that keeps a bounded pool of ready Teiid connections, so
+ * that opening and closing a connection per request does not pay the connection setup cost each time.
+ * <pre>
+ *    InfinispanDataSource ds = new InfinispanDataSource();
+ *    ds.setUrl("jdbc:infinispan://localhost:11222/addressbook_indexed;protobuf=/quickstart/addressbook.proto");
+ *    ds.setMaxPoolSize(20);
+ *    try (Connection c = ds.getConnection()) {
+ *        ...
+ *    }
+ * </pre>
+ * Idle connections are validated when they are borrowed after being idle longer than the validation
+ * interval, and their session state (auto commit, read only, isolation level, open statements) is reset
+ * when they are returned. The same object can be used as a {@link ConnectionPoolDataSource} by containers
+ * that do their own pooling.
+ */
+public class InfinispanDataSource implements DataSource, ConnectionPoolDataSource {
+    private String url;
+    private String user;
+    private String password;
+    private Properties properties = new Properties();
+    private int maxPoolSize = 20;
+    private long maxWaitMillis = 30000;
+    private long validationIntervalMillis = 30000;
+    private int validationTimeout = 5;
+    private int loginTimeout;
+    private PrintWriter logWriter;
+
+    private volatile ConnectionPool pool;
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getPool().borrow();
+    }
+
+    @Override
+    public Connection getConnection(String username, String pwd) throws SQLException {
+        if (equals(username, this.user) && equals(pwd, this.password)) {
+            return getConnection();
+        }
+        // connections for other credentials are not pooled
+        return connect(username, pwd);
+    }
+
+    @Override
+    public PooledConnection getPooledConnection() throws SQLException {
+        return new PooledConnectionImpl(connect(this.user, this.password));
+    }
+
+    @Override
+    public PooledConnection getPooledConnection(String username, String pwd) throws SQLException {
+        return new PooledConnectionImpl(connect(username, pwd));
+    }
+
+    private ConnectionPool getPool() throws SQLException {
+        ConnectionPool p = this.pool;
+        if (p == null) {
+            synchronized (this) {
+                p = this.pool;
+                if (p == null) {
+                    if (this.url == null) {
+                        throw new SQLException("No URL defined on the Infinispan DataSource"); //$NON-NLS-1$
+                    }
+                    // a login timeout bounds the wait for a pooled connection like it bounds a login
+                    long maxWait = this.loginTimeout > 0 ? TimeUnit.SECONDS.toMillis(this.loginTimeout)
+                            : this.maxWaitMillis;
+                    p = new ConnectionPool(() -> new PooledConnectionImpl(connect(this.user, this.password)),
+                            this.maxPoolSize, maxWait, this.validationIntervalMillis, this.validationTimeout);
+                    this.pool = p;
+                }
+            }
+        }
+        return p;
+    }
+
+    private ConnectionImpl connect(String username, String pwd) throws SQLException {
+        Properties info = new Properties();
+        info.putAll(this.properties);
+        if (username != null) {
+            info.setProperty("user", username); //$NON-NLS-1$
+        }
+        if (pwd != null) {
+            info.setProperty("password", pwd); //$NON-NLS-1$
+        }
+        ConnectionImpl c = Driver.getInstance().connect(this.url, info);
+        if (c == null) {
+            throw new SQLException("Invalid Infinispan JDBC URL " + this.url); //$NON-NLS-1$
+        }
+        return c;
+    }
+
+    private static boolean equals(String left, String right) {
+        return left == null ? right == null : left.equals(right);
+    }
+
+    /**
+     * Closes all the idle connections; connections that are in use are closed when they are returned.
+     */
+    public synchronized void close() {
+        if (this.pool != null) {
+            this.pool.close();
+            this.pool = null;
+        }
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public String getUser() {
+        return user;
+    }
+
+    public void setUser(String user) {
+        this.user = user;
+    }
+
+    public String getPassword() {
+        return password;
+    }
+
+    public void setPassword(String password) {
+        this.password = password;
+    }
+
+    public Properties getProperties() {
+        return properties;
+    }
+
+    public void setProperties(Properties properties) {
+        this.properties = properties;
+    }
+
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+
+    public long getMaxWaitMillis() {
+        return maxWaitMillis;
+    }
+
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+
+    public long getValidationIntervalMillis() {
+        return validationIntervalMillis;
+    }
+
+    public void setValidationIntervalMillis(long validationIntervalMillis) {
+        this.validationIntervalMillis = validationIntervalMillis;
+    }
+
+    public int getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    public void setValidationTimeout(int validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+
+    public int getActiveConnections() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getActiveCount();
+    }
+
+    public int getIdleConnections() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getIdleCount();
+    }
+
+    public long getBorrowCount() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getBorrowCount();
+    }
+
+    /**
+     * @return number of borrows that had to wait for a connection to be returned to the pool
+     */
+    public long getWaitCount() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getWaitCount();
+    }
+
+    public long getTimeoutCount() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getTimeoutCount();
+    }
+
+    public long getTotalWaitTimeNanos() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getTotalWaitNanos();
+    }
+
+    public long getMaxWaitTimeNanos() {
+        ConnectionPool p = this.pool;
+        return p == null ? 0 : p.getMaxWaitNanos();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.logWriter;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        this.logWriter = out;
+    }
+
+    /**
+     * Sets the maximum time in seconds to wait for a pooled connection, instead of the max wait, when greater
+     * than 0. It applies to the pool created by the next {@link #getConnection()}.
+     */
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        this.loginTimeout = seconds;
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.loginTimeout;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return Driver.logger;
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("Can not unwrap to " + iface.getName()); //$NON-NLS-1$
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.infinispan.protostream.BaseMarshaller;
+import org.teiid.infinispan.api.InfinispanDocument;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.In;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.RuntimeMetadata;
+import org.teiid.metadata.Table;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.infinispan.hotrod.MarshallerBuilder;
+import org.teiid.translator.infinispan.hotrod.ProtobufMetadataProcessor;
+
+import io.infinispan.data.InfinispanConnectionImpl;
+
+/**
+ * Pushes "SELECT columns FROM table WHERE pk = value" and "... WHERE pk IN (values)" down as key lookups on
+ * the cache instead of an Ickle query, going through the near cache when there is one. The lookups read
+ * whole documents, so that the near cache only ever holds complete entries.
+ * <p>
+ * The statement is still parsed and planned by the engine, prepared statements reusing their cached plan;
+ * only the remote query that the plan runs is replaced.
+ */
+class KeyLookupPushdownExecution implements ResultSetExecution {
+    private final Table table;
+    private final List<Column> projected;
+    private final Set<Object> keys;
+    private final RuntimeMetadata metadata;
+    private final InfinispanConnectionImpl connection;
+    private Iterator<List<?>> rows;
+
+    KeyLookupPushdownExecution(Table table, List<Column> projected, Set<Object> keys, RuntimeMetadata metadata,
+            InfinispanConnectionImpl connection) {
+        this.table = table;
+        this.projected = projected;
+        this.keys = keys;
+        this.metadata = metadata;
+        this.connection = connection;
+    }
+
+    /**
+     * @return the key lookup for the query, null if the query is not a plain primary key lookup on a top
+     * level table of the connection's cache
+     */
+    static KeyLookupPushdownExecution create(QueryExpression command, RuntimeMetadata metadata, Object connection) {
+        if (!(command instanceof Select) || !(connection instanceof InfinispanConnectionImpl)) {
+            return null;
+        }
+        Select select = (Select) command;
+        if (select.isDistinct() || select.getGroupBy() != null || select.getHaving() != null
+                || select.getOrderBy() != null || select.getLimit() != null || select.getFrom().size() != 1
+                || !(select.getFrom().get(0) instanceof NamedTable)) {
+            return null;
+        }
+        Table table = ((NamedTable) select.getFrom().get(0)).getMetadataObject();
+        if (table == null || table.getPrimaryKey() == null || table.getPrimaryKey().getColumns().size() != 1
+                || table.getProperty(ProtobufMetadataProcessor.MERGE, false) != null
+                || table.getProperty(ProtobufMetadataProcessor.CACHE, false) != null) {
+            return null;
+        }
+        Column pk = table.getPrimaryKey().getColumns().get(0);
+
+        List<Column> projected = new ArrayList<>(select.getDerivedColumns().size());
+        for (DerivedColumn column : select.getDerivedColumns()) {
+            Column c = column(column.getExpression(), table);
+            if (c == null) {
+                return null;
+            }
+            projected.add(c);
+        }
+
+        Set<Object> keys = keys(select.getWhere(), pk, table);
+        if (keys == null) {
+            return null;
+        }
+        return new KeyLookupPushdownExecution(table, projected, keys, metadata, (InfinispanConnectionImpl) connection);
+    }
+
+    private static Column column(Expression expression, Table table) {
+        if (!(expression instanceof ColumnReference)) {
+            return null;
+        }
+        Column column = ((ColumnReference) expression).getMetadataObject();
+        return column != null && column.getParent() == table ? column : null;
+    }
+
+    private static Set<Object> keys(Condition where, Column pk, Table table) {
+        List<Expression> values;
+        if (where instanceof Comparison && ((Comparison) where).getOperator() == Comparison.Operator.EQ) {
+            Comparison comparison = (Comparison) where;
+            if (column(comparison.getLeftExpression(), table) == pk) {
+                values = Collections.singletonList(comparison.getRightExpression());
+            } else if (column(comparison.getRightExpression(), table) == pk) {
+                values = Collections.singletonList(comparison.getLeftExpression());
+            } else {
+                return null;
+            }
+        } else if (where instanceof In && !((In) where).isNegated() && column(((In) where).getLeftExpression(), table) == pk) {
+            values = ((In) where).getRightExpressions();
+        } else {
+            return null;
+        }
+        Set<Object> keys = new LinkedHashSet<>();
+        for (Expression value : values) {
+            if (!(value instanceof Literal) || ((Literal) value).isMultiValued()) {
+                return null;
+            }
+            Object key = ((Literal) value).getValue();
+            // only keys that are stored as they are given
+            if (!(key instanceof String || key instanceof Integer || key instanceof Long)) {
+                return null;
+            }
+            keys.add(key);
+        }
+        return keys;
+    }
+
+    @Override
+    public void execute() throws TranslatorException {
+        BaseMarshaller<InfinispanDocument> marshaller = getMarshaller();
+        List<String> attributes = new ArrayList<>(this.projected.size());
+        for (Column column : this.projected) {
+            attributes.add(getAttributeName(column));
+        }
+
+        Map<Object, Object> values;
+        this.connection.registerMarshaller(marshaller);
+        try {
+            if (this.keys.size() == 1) {
+                Object key = this.keys.iterator().next();
+                Object value = this.connection.get(key);
+                values = value == null ? Collections.emptyMap() : Collections.singletonMap(key, value);
+            } else {
+                values = this.connection.getAll(this.keys);
+            }
+        } finally {
+            this.connection.unRegisterMarshaller(marshaller);
+        }
+
+        List<List<?>> results = new ArrayList<>(values.size());
+        for (Object key : this.keys) {
+            Object value = values.get(key);
+            if (!(value instanceof InfinispanDocument)) {
+                continue;
+            }
+            Map<String, Object> properties = ((InfinispanDocument) value).getProperties();
+            List<Object> row = new ArrayList<>(attributes.size());
+            for (String attribute : attributes) {
+                row.add(properties.get(attribute));
+            }
+            results.add(row);
+        }
+        this.rows = results.iterator();
+    }
+
+    BaseMarshaller<InfinispanDocument> getMarshaller() throws TranslatorException {
+        return MarshallerBuilder.getMarshaller(this.table, this.metadata, null);
+    }
+
+    String getAttributeName(Column column) throws TranslatorException {
+        return MarshallerBuilder.getDocumentAttributeName(column, false, this.metadata);
+    }
+
+    @Override
+    public List<?> next() throws TranslatorException, DataNotAvailableException {
+        return this.rows.hasNext() ? this.rows.next() : null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public void cancel() throws TranslatorException {
+    }
+}
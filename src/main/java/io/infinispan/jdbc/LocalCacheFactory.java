@@ -0,0 +1,78 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.teiid.cache.Cache;
+import org.teiid.cache.CacheFactory;
+
+/**
+ * Creates the {@link ConcurrentLocalCache}s for the embedded Teiid engine. The limits are read from the
+ * connection properties or system properties, first for the specific cache ("resultset.cacheMaxEntries")
+ * and then for all caches ("cacheMaxEntries").
+ * <pre>
+ *    cacheMaxEntries => maximum number of entries of each cache, default 1024
+ *    cacheMaxBytes => maximum estimated size in bytes of each cache, default unbounded
+ *    cacheTtl => default time to live of an entry in milliseconds, default no expiry
+ * </pre>
+ */
+class LocalCacheFactory implements CacheFactory {
+    static final String MAX_ENTRIES = "cacheMaxEntries"; //$NON-NLS-1$
+    static final String MAX_BYTES = "cacheMaxBytes"; //$NON-NLS-1$
+    static final String TTL = "cacheTtl"; //$NON-NLS-1$
+
+    private final Properties properties;
+    private final ConcurrentHashMap<String, ConcurrentLocalCache<?, ?>> caches = new ConcurrentHashMap<>();
+
+    LocalCacheFactory(Properties properties) {
+        this.properties = properties;
+    }
+
+    @Override
+    public <K, V> Cache<K, V> get(String name) {
+        ConcurrentLocalCache<K, V> cache = new ConcurrentLocalCache<>(name,
+                Integer.parseInt(getProperty(name, MAX_ENTRIES, "1024")), //$NON-NLS-1$
+                Long.parseLong(getProperty(name, MAX_BYTES, "-1")), //$NON-NLS-1$
+                Long.parseLong(getProperty(name, TTL, "-1")), //$NON-NLS-1$
+                null);
+        this.caches.put(name, cache);
+        return cache;
+    }
+
+    private String getProperty(String cacheName, String key, String defaultValue) {
+        String value = Driver.getProperty(this.properties, cacheName + "." + key, null); //$NON-NLS-1$
+        if (value == null) {
+            value = Driver.getProperty(this.properties, key, defaultValue);
+        }
+        return value;
+    }
+
+    ConcurrentLocalCache<?, ?> getCache(String name) {
+        return this.caches.get(name);
+    }
+
+    @Override
+    public void destroy() {
+        for (ConcurrentLocalCache<?, ?> cache : this.caches.values()) {
+            cache.clear();
+        }
+        this.caches.clear();
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+
+import javax.resource.ResourceException;
+
+import org.infinispan.commons.api.BasicCache;
+import org.infinispan.query.remote.client.ProtobufMetadataManagerConstants;
+import org.teiid.adminapi.AdminException;
+import org.teiid.core.util.ApplicationInfo;
+import org.teiid.core.util.ObjectConverterUtil;
+import org.teiid.infinispan.api.ProtobufResource;
+import org.teiid.translator.TranslatorException;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.jdbc.Driver.CacheSource;
+
+/**
+ * The resolved metadata of a VDB saved in a local file, so that the next start deploys the VDB from its DDL
+ * instead of importing the protobuf files. The snapshot holds the DDL of each model and the protobuf files
+ * registered while importing it, and is only used while the hash of the VDB and of the schemas it was
+ * imported from is unchanged.
+ */
+class MetadataSnapshot {
+    private static final String HASH = "hash"; //$NON-NLS-1$
+
+    private final File file;
+
+    MetadataSnapshot(File directory, String vdbName) {
+        this.file = new File(directory, vdbName + ".snapshot"); //$NON-NLS-1$
+    }
+
+    /**
+     * @return the snapshot of the VDB, null when the "metadataSnapshot" property is not set
+     */
+    static MetadataSnapshot of(Properties p, String vdbName) {
+        String directory = Driver.getProperty(p, "metadataSnapshot", null); //$NON-NLS-1$
+        return directory == null ? null : new MetadataSnapshot(new File(directory), vdbName);
+    }
+
+    /**
+     * @return the hash of the VDB and of the schema contents of its caches, the protobuf files are read from
+     * the servers and the schema files from disk
+     */
+    static String hash(String vdb, List<CacheSource> sources, TeiidServer server) throws SQLException {
+        StringBuilder content = new StringBuilder(vdb);
+        content.append('\n').append(ApplicationInfo.getInstance().getReleaseNumber());
+        for (CacheSource source : sources) {
+            Properties p = source.properties;
+            content.append('\n');
+            try {
+                if (p.getProperty("protobuf") != null) { //$NON-NLS-1$
+                    BasicCache<String, String> metadata = server.getConnectionFactory(source.jndiName).getConnection()
+                            .getCache(ProtobufMetadataManagerConstants.PROTOBUF_METADATA_CACHE_NAME, false);
+                    if (metadata != null) {
+                        content.append(metadata.get(p.getProperty("protobuf"))); //$NON-NLS-1$
+                    }
+                } else if (p.getProperty("schema") != null) { //$NON-NLS-1$
+                    try (FileReader reader = new FileReader(p.getProperty("schema"))) { //$NON-NLS-1$
+                        content.append(ObjectConverterUtil.convertToString(reader));
+                    }
+                }
+            } catch (ResourceException | TranslatorException | IOException e) {
+                throw new SQLException(e.getMessage(), e);
+            }
+        }
+        return InfinispanConnectionFactory.contentHash(content.toString());
+    }
+
+    /**
+     * Registers the protobuf files of the snapshot with the connection factories of the caches.
+     * @return the DDL of each source in order, null if there is no snapshot for the hash
+     */
+    List<String> load(String hash, List<CacheSource> sources, TeiidServer server) {
+        if (!this.file.isFile()) {
+            return null;
+        }
+        Properties snapshot = new Properties();
+        try (InputStream in = Files.newInputStream(this.file.toPath())) {
+            snapshot.load(in);
+        } catch (IOException e) {
+            Driver.logger.log(Level.WARNING, "Failed to read the metadata snapshot " + this.file, e); //$NON-NLS-1$
+            return null;
+        }
+        if (!hash.equals(snapshot.getProperty(HASH))) {
+            return null;
+        }
+        List<String> ddl = new ArrayList<>(sources.size());
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                String model = "model." + i; //$NON-NLS-1$
+                if (snapshot.getProperty(model + ".ddl") == null) { //$NON-NLS-1$
+                    return null;
+                }
+                ddl.add(snapshot.getProperty(model + ".ddl")); //$NON-NLS-1$
+                InfinispanConnectionFactory factory = server.getConnectionFactory(sources.get(i).jndiName);
+                for (int j = 0; snapshot.getProperty(model + ".protobuf." + j + ".name") != null; j++) { //$NON-NLS-1$ //$NON-NLS-2$
+                    factory.getConnection().registerProtobufFile(new ProtobufResource(
+                            snapshot.getProperty(model + ".protobuf." + j + ".name"), //$NON-NLS-1$ //$NON-NLS-2$
+                            snapshot.getProperty(model + ".protobuf." + j + ".contents"))); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        } catch (ResourceException | TranslatorException e) {
+            Driver.logger.log(Level.WARNING, "Failed to register the protobuf files of the metadata snapshot " //$NON-NLS-1$
+                    + this.file, e);
+            return null;
+        }
+        return ddl;
+    }
+
+    /**
+     * Saves the metadata of the deployed VDB; a snapshot that can not be written is only logged.
+     */
+    void save(String hash, String vdbName, List<CacheSource> sources, TeiidServer server) {
+        Properties snapshot = new Properties();
+        snapshot.setProperty(HASH, hash);
+        try {
+            for (int i = 0; i < sources.size(); i++) {
+                CacheSource source = sources.get(i);
+                String model = "model." + i; //$NON-NLS-1$
+                snapshot.setProperty(model + ".ddl", //$NON-NLS-1$
+                        server.getAdmin().getSchema(vdbName, "1", source.modelName, null, null)); //$NON-NLS-1$
+                int j = 0;
+                for (Map.Entry<String, String> protobuf : server.getConnectionFactory(source.jndiName)
+                        .getProtobufFiles().entrySet()) {
+                    snapshot.setProperty(model + ".protobuf." + j + ".name", protobuf.getKey()); //$NON-NLS-1$ //$NON-NLS-2$
+                    snapshot.setProperty(model + ".protobuf." + j + ".contents", protobuf.getValue()); //$NON-NLS-1$ //$NON-NLS-2$
+                    j++;
+                }
+            }
+            Files.createDirectories(this.file.getParentFile().toPath());
+            // written aside and moved, so that other JVMs starting at the same time never read a partial file
+            Path tmp = Files.createTempFile(this.file.getParentFile().toPath(), this.file.getName(), ".tmp"); //$NON-NLS-1$
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                snapshot.store(out, "Infinispan JDBC metadata snapshot of " + vdbName); //$NON-NLS-1$
+            }
+            Files.move(tmp, this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AdminException | IOException e) {
+            Driver.logger.log(Level.WARNING, "Failed to write the metadata snapshot " + this.file, e); //$NON-NLS-1$
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+
+import org.teiid.core.util.PropertiesUtils;
+import org.teiid.jdbc.ConnectionImpl;
+
+/**
+ * A physical Teiid connection that hands out logical connection handles. Closing a handle does not close
+ * the physical connection, it notifies the registered listeners so that the connection can be reused.
+ */
+public class PooledConnectionImpl implements PooledConnection {
+    private final ConnectionImpl connection;
+    private final int defaultIsolation;
+    private final List<ConnectionEventListener> listeners = new CopyOnWriteArrayList<>();
+    private volatile Handle handle;
+    private InfinispanAsyncConnection asyncConnection;
+    private volatile long lastUsed = System.nanoTime();
+
+    public PooledConnectionImpl(ConnectionImpl connection) throws SQLException {
+        this.connection = connection;
+        this.defaultIsolation = connection.getTransactionIsolation();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (this.connection.isClosed()) {
+            throw new SQLException("Pooled connection is closed"); //$NON-NLS-1$
+        }
+        Handle previous = this.handle;
+        if (previous != null) {
+            // only one logical connection may be open at a time
+            previous.invalidate();
+        }
+        this.handle = new Handle();
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class },
+                this.handle);
+    }
+
+    @Override
+    public void close() throws SQLException {
+        Handle current = this.handle;
+        if (current != null) {
+            current.invalidate();
+        }
+        synchronized (this) {
+            if (this.asyncConnection != null) {
+                this.asyncConnection.close();
+                this.asyncConnection = null;
+            }
+        }
+        this.connection.close();
+    }
+
+    /**
+     * @return the non-blocking connection to the same VDB, opened on first use and closed with this connection
+     */
+    synchronized InfinispanAsyncConnection getAsyncConnection() throws SQLException {
+        if (this.asyncConnection == null || this.asyncConnection.isClosed()) {
+            this.asyncConnection = new InfinispanAsyncConnection(Driver.getInstance().connectTeiid(
+                    this.connection.getVDBName(), PropertiesUtils.clone(this.connection.getExecutionProperties()), false));
+        }
+        return this.asyncConnection;
+    }
+
+    ConnectionImpl getPhysicalConnection() {
+        return this.connection;
+    }
+
+    long getLastUsed() {
+        return this.lastUsed;
+    }
+
+    boolean isValid(int timeoutSeconds) {
+        try {
+            return !this.connection.isClosed() && this.connection.isValid(timeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Restores the session to the state it had when the physical connection was opened.
+     * @return false if the connection can not be safely reused
+     */
+    boolean reset() {
+        try {
+            if (!this.connection.getAutoCommit()) {
+                this.connection.rollback();
+                this.connection.setAutoCommit(true);
+            }
+            if (this.connection.isReadOnly()) {
+                this.connection.setReadOnly(false);
+            }
+            if (this.connection.getTransactionIsolation() != this.defaultIsolation) {
+                this.connection.setTransactionIsolation(this.defaultIsolation);
+            }
+            this.connection.clearWarnings();
+            this.lastUsed = System.nanoTime();
+            return true;
+        } catch (SQLException e) {
+            Driver.logger.log(Level.FINE, "Failed to reset pooled connection", e); //$NON-NLS-1$
+            return false;
+        }
+    }
+
+    @Override
+    public void addConnectionEventListener(ConnectionEventListener listener) {
+        this.listeners.add(listener);
+    }
+
+    @Override
+    public void removeConnectionEventListener(ConnectionEventListener listener) {
+        this.listeners.remove(listener);
+    }
+
+    @Override
+    public void addStatementEventListener(StatementEventListener listener) {
+    }
+
+    @Override
+    public void removeStatementEventListener(StatementEventListener listener) {
+    }
+
+    private void fireClosed() {
+        ConnectionEvent event = new ConnectionEvent(this);
+        for (ConnectionEventListener listener : this.listeners) {
+            listener.connectionClosed(event);
+        }
+    }
+
+    private void fireError(SQLException e) {
+        ConnectionEvent event = new ConnectionEvent(this, e);
+        for (ConnectionEventListener listener : this.listeners) {
+            listener.connectionErrorOccurred(event);
+        }
+    }
+
+    private static boolean isClosed(Statement s) {
+        try {
+            return s.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private class Handle implements InvocationHandler {
+        private volatile boolean closed;
+        private final List<Statement> statements = new ArrayList<>();
+
+        void invalidate() {
+            this.closed = true;
+            closeStatements();
+        }
+
+        private void closeStatements() {
+            synchronized (this.statements) {
+                for (Statement s : this.statements) {
+                    try {
+                        s.close();
+                    } catch (SQLException e) {
+                        // ignore, the statement is discarded
+                    }
+                }
+                this.statements.clear();
+            }
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) { //$NON-NLS-1$
+                if (!this.closed) {
+                    invalidate();
+                    // the returned connection does not keep the handle and what it tracked
+                    if (handle == this) {
+                        handle = null;
+                    }
+                    fireClosed();
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) { //$NON-NLS-1$
+                return this.closed || connection.isClosed();
+            }
+            if (name.equals("equals")) { //$NON-NLS-1$
+                return proxy == args[0];
+            }
+            if (name.equals("hashCode")) { //$NON-NLS-1$
+                return System.identityHashCode(proxy);
+            }
+            if (name.equals("toString")) { //$NON-NLS-1$
+                return "Pooled[" + connection + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (this.closed) {
+                throw new SQLException("Connection is closed"); //$NON-NLS-1$
+            }
+            if (name.equals("isWrapperFor") && args[0] == InfinispanAsyncConnection.class) { //$NON-NLS-1$
+                return true;
+            }
+            if (name.equals("unwrap") && args[0] == InfinispanAsyncConnection.class) { //$NON-NLS-1$
+                return getAsyncConnection();
+            }
+            try {
+                Object result = method.invoke(connection, args);
+                if (result instanceof Statement) {
+                    synchronized (this.statements) {
+                        // statements the application already closed are not tracked any longer
+                        this.statements.removeIf(PooledConnectionImpl::isClosed);
+                        this.statements.add((Statement) result);
+                    }
+                }
+                return result;
+            } catch (InvocationTargetException e) {
+                Throwable t = e.getTargetException();
+                if (t instanceof SQLException && isFatal((SQLException) t)) {
+                    fireError((SQLException) t);
+                }
+                throw t;
+            }
+        }
+
+        private boolean isFatal(SQLException e) {
+            // SQL state class 08 is connection exception
+            return e.getSQLState() != null && e.getSQLState().startsWith("08"); //$NON-NLS-1$
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+
+/**
+ * Reads the rows of a paged query execution on a background thread, so the next page is fetched from the
+ * server while the engine consumes the current one. At most two pages are held in memory.
+ */
+class PrefetchingExecution implements ResultSetExecution {
+    private static final List<?> END = Collections.emptyList();
+
+    private final ResultSetExecution delegate;
+    private final ExecutorService executor;
+    private final BlockingQueue<List<?>> rows;
+    private volatile boolean closed;
+    private volatile Throwable failure;
+    private Future<?> producer;
+    private boolean done;
+
+    PrefetchingExecution(ResultSetExecution delegate, ExecutorService executor, int pageSize) {
+        this.delegate = delegate;
+        this.executor = executor;
+        this.rows = new ArrayBlockingQueue<>(Math.max(2, pageSize * 2));
+    }
+
+    @Override
+    public void execute() throws TranslatorException {
+        // the query itself runs on the calling thread so that errors are reported right away
+        this.delegate.execute();
+        this.producer = this.executor.submit(this::produce);
+    }
+
+    private void produce() {
+        try {
+            List<?> row;
+            do {
+                row = this.delegate.next();
+                if (!offer(row == null ? END : row)) {
+                    return;
+                }
+            } while (row != null);
+        } catch (Throwable e) {
+            this.failure = e;
+            offer(END);
+        }
+    }
+
+    private boolean offer(List<?> row) {
+        try {
+            while (!this.closed) {
+                if (this.rows.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    @Override
+    public List<?> next() throws TranslatorException, DataNotAvailableException {
+        if (this.done) {
+            return null;
+        }
+        List<?> row;
+        try {
+            row = this.rows.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TranslatorException(e);
+        }
+        if (row == END) {
+            this.done = true;
+            if (this.failure != null) {
+                if (this.failure instanceof TranslatorException) {
+                    throw (TranslatorException) this.failure;
+                }
+                throw new TranslatorException(this.failure);
+            }
+            return null;
+        }
+        return row;
+    }
+
+    @Override
+    public void cancel() throws TranslatorException {
+        this.closed = true;
+        this.delegate.cancel();
+    }
+
+    @Override
+    public void close() {
+        this.closed = true;
+        if (this.producer != null) {
+            this.producer.cancel(true);
+        }
+        this.rows.clear();
+        this.delegate.close();
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryCreated;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryExpired;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryModified;
+import org.infinispan.client.hotrod.annotation.ClientCacheEntryRemoved;
+import org.infinispan.client.hotrod.annotation.ClientCacheFailover;
+import org.infinispan.client.hotrod.annotation.ClientListener;
+import org.infinispan.client.hotrod.event.ClientCacheEntryCreatedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryExpiredEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryModifiedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheEntryRemovedEvent;
+import org.infinispan.client.hotrod.event.ClientCacheFailoverEvent;
+
+/**
+ * Listens to the writes on a cache and marks the tables of its model as modified, so the engine no longer
+ * uses the cached results of queries that read them. Writes made through the driver itself are already
+ * tracked by the engine, this covers the writes of other clients.
+ */
+@ClientListener
+class ResultCacheInvalidator {
+    private final TeiidServer server;
+    private final String vdbName;
+    private final String modelName;
+
+    ResultCacheInvalidator(TeiidServer server, String vdbName, String modelName) {
+        this.server = server;
+        this.vdbName = vdbName;
+        this.modelName = modelName;
+    }
+
+    @ClientCacheEntryCreated
+    public void entryCreated(ClientCacheEntryCreatedEvent<Object> event) {
+        invalidate();
+    }
+
+    @ClientCacheEntryModified
+    public void entryModified(ClientCacheEntryModifiedEvent<Object> event) {
+        invalidate();
+    }
+
+    @ClientCacheEntryRemoved
+    public void entryRemoved(ClientCacheEntryRemovedEvent<Object> event) {
+        invalidate();
+    }
+
+    @ClientCacheEntryExpired
+    public void entryExpired(ClientCacheEntryExpiredEvent<Object> event) {
+        invalidate();
+    }
+
+    @ClientCacheFailover
+    public void failover(ClientCacheFailoverEvent event) {
+        // events may have been missed
+        invalidate();
+    }
+
+    private void invalidate() {
+        this.server.dataModification(this.vdbName, this.modelName);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.teiid.language.ColumnReference;
+import org.teiid.language.QueryExpression;
+import org.teiid.language.Select;
+import org.teiid.language.visitor.CollectorVisitor;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.Table;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.infinispan.hotrod.ProtobufMetadataProcessor;
+
+import io.infinispan.data.MarshallerScope;
+import io.infinispan.data.ProjectingMarshaller;
+
+/**
+ * Runs every call of an execution in the execution's {@link MarshallerScope}, so that the pages it reads
+ * are decoded with the marshallers it registered on whichever thread calls it: the engine may execute, read
+ * and close an execution on different threads, and a streaming execution reads on a worker thread. With a
+ * projection in the scope, the documents only decode the fields of the columns the query uses, see
+ * {@link ProjectingMarshaller}.
+ */
+class ScopedExecution implements ResultSetExecution {
+    private final ResultSetExecution delegate;
+    private final MarshallerScope scope;
+
+    ScopedExecution(ResultSetExecution delegate, MarshallerScope scope) {
+        this.delegate = delegate;
+        this.scope = scope;
+    }
+
+    /**
+     * @return the field numbers, by message type name, of the columns the query uses and of the primary keys
+     * of their tables; the fields of a nested message are decoded whole. Null if the fields of a column are
+     * not known.
+     */
+    static Map<String, BitSet> projection(QueryExpression command) {
+        if (!(command instanceof Select)) {
+            return null;
+        }
+        Map<String, BitSet> projection = new HashMap<>();
+        for (ColumnReference reference : CollectorVisitor.collectElements(command)) {
+            Column column = reference.getMetadataObject();
+            if (column == null || !(column.getParent() instanceof Table)) {
+                return null;
+            }
+            Table table = (Table) column.getParent();
+            String tag;
+            String merge = table.getProperty(ProtobufMetadataProcessor.MERGE, false);
+            if (merge != null) {
+                // a column of a nested message, the field of the whole message is decoded
+                tag = table.getProperty(ProtobufMetadataProcessor.PARENT_TAG, false);
+                table = table.getParent().getTable(merge.substring(merge.lastIndexOf('.') + 1));
+            } else {
+                tag = column.getProperty(ProtobufMetadataProcessor.TAG, false);
+            }
+            if (table == null || !set(projection, table, tag)) {
+                return null;
+            }
+        }
+        return projection.isEmpty() ? null : projection;
+    }
+
+    private static boolean set(Map<String, BitSet> projection, Table table, String tag) {
+        BitSet fields = projection.get(table.getSourceName());
+        if (fields == null) {
+            fields = new BitSet();
+            projection.put(table.getSourceName(), fields);
+            if (table.getPrimaryKey() != null) {
+                for (Column pk : table.getPrimaryKey().getColumns()) {
+                    if (!set(fields, pk.getProperty(ProtobufMetadataProcessor.TAG, false))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return set(fields, tag);
+    }
+
+    private static boolean set(BitSet fields, String tag) {
+        if (tag == null) {
+            return false;
+        }
+        try {
+            fields.set(Integer.parseInt(tag));
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void execute() throws TranslatorException {
+        MarshallerScope previous = this.scope.enter();
+        try {
+            this.delegate.execute();
+        } finally {
+            MarshallerScope.exit(previous);
+        }
+    }
+
+    @Override
+    public List<?> next() throws TranslatorException, DataNotAvailableException {
+        MarshallerScope previous = this.scope.enter();
+        try {
+            return this.delegate.next();
+        } finally {
+            MarshallerScope.exit(previous);
+        }
+    }
+
+    @Override
+    public void close() {
+        MarshallerScope previous = this.scope.enter();
+        try {
+            this.delegate.close();
+        } finally {
+            MarshallerScope.exit(previous);
+        }
+    }
+
+    @Override
+    public void cancel() throws TranslatorException {
+        MarshallerScope previous = this.scope.enter();
+        try {
+            this.delegate.cancel();
+        } finally {
+            MarshallerScope.exit(previous);
+        }
+    }
+}
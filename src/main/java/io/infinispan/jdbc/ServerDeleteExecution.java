@@ -0,0 +1,238 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Level;
+
+import org.teiid.language.AndOr;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.Delete;
+import org.teiid.language.Expression;
+import org.teiid.language.In;
+import org.teiid.language.IsNull;
+import org.teiid.language.Literal;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.Table;
+import org.teiid.translator.DataNotAvailableException;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.UpdateExecution;
+import org.teiid.translator.infinispan.hotrod.ProtobufMetadataProcessor;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.data.InfinispanConnectionImpl;
+
+/**
+ * Executes a DELETE with a server task, which queries the keys of the matching entries and removes them on
+ * the server, so that only the deleted row count crosses the network. The task is registered once per
+ * version of its script. When the task can not run, like without the permission to register scripts, or
+ * does not remove all the entries it matched, like when the server can not convert the keys to the way it
+ * stores them, the DELETE runs on the translator's own update execution.
+ */
+class ServerDeleteExecution implements UpdateExecution {
+
+    interface FallbackFactory {
+        UpdateExecution create() throws TranslatorException;
+    }
+
+    static final String SCRIPT = "// mode=local,language=javascript,parameters=[cacheName,query]\n" //$NON-NLS-1$
+            + "var target = cacheManager.getCache(cacheName);\n" //$NON-NLS-1$
+            + "var rows = org.infinispan.query.Search.getQueryFactory(target).create(query).list();\n" //$NON-NLS-1$
+            // the queried keys are objects, the cache converts them to the encoding it stores them in
+            + "var keys = target.getAdvancedCache().withMediaType('application/x-java-object', 'application/x-java-object');\n" //$NON-NLS-1$
+            + "var removed = 0;\n" //$NON-NLS-1$
+            + "for (var i = 0; i < rows.size(); i++) {\n" //$NON-NLS-1$
+            + "    if (keys.remove(rows.get(i)[0]) != null) {\n" //$NON-NLS-1$
+            + "        removed++;\n" //$NON-NLS-1$
+            + "    }\n" //$NON-NLS-1$
+            + "}\n" //$NON-NLS-1$
+            + "Java.to([rows.size(), removed], 'int[]');\n"; //$NON-NLS-1$
+    // a changed script is registered under a new name
+    static final String SCRIPT_NAME = "infinispan-jdbc-delete-" //$NON-NLS-1$
+            + InfinispanConnectionFactory.contentHash(SCRIPT).substring(0, 12) + ".js"; //$NON-NLS-1$
+
+    private final String query;
+    private final InfinispanConnectionImpl connection;
+    private final FallbackFactory fallbackFactory;
+    private UpdateExecution fallback;
+    private int count;
+
+    ServerDeleteExecution(String query, InfinispanConnectionImpl connection, FallbackFactory fallbackFactory) {
+        this.query = query;
+        this.connection = connection;
+        this.fallbackFactory = fallbackFactory;
+    }
+
+    /**
+     * @return the Ickle query of the keys of the entries the DELETE removes, null if the DELETE is not on a
+     * top level table with a single column primary key, or has other conditions than comparisons, IN and IS
+     * NULL of its columns with literals, combined with AND
+     */
+    static String keyQuery(Delete delete) {
+        Table table = delete.getTable().getMetadataObject();
+        if (table == null || table.getPrimaryKey() == null || table.getPrimaryKey().getColumns().size() != 1
+                || table.getProperty(ProtobufMetadataProcessor.MERGE, false) != null
+                || table.getProperty(ProtobufMetadataProcessor.CACHE, false) != null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder("SELECT "); //$NON-NLS-1$
+        query.append(table.getPrimaryKey().getColumns().get(0).getSourceName());
+        query.append(" FROM ").append(table.getSourceName()); //$NON-NLS-1$
+        if (delete.getWhere() != null) {
+            query.append(" WHERE "); //$NON-NLS-1$
+            if (!append(delete.getWhere(), table, query)) {
+                return null;
+            }
+        }
+        return query.toString();
+    }
+
+    private static boolean append(Condition condition, Table table, StringBuilder query) {
+        if (condition instanceof AndOr) {
+            AndOr and = (AndOr) condition;
+            if (and.getOperator() != AndOr.Operator.AND) {
+                return false;
+            }
+            query.append('(');
+            boolean result = append(and.getLeftCondition(), table, query);
+            query.append(") AND ("); //$NON-NLS-1$
+            result &= append(and.getRightCondition(), table, query);
+            query.append(')');
+            return result;
+        } else if (condition instanceof Comparison) {
+            Comparison comparison = (Comparison) condition;
+            String operator;
+            switch (comparison.getOperator()) {
+            case EQ: operator = " = "; break; //$NON-NLS-1$
+            case NE: operator = " != "; break; //$NON-NLS-1$
+            case LT: operator = " < "; break; //$NON-NLS-1$
+            case LE: operator = " <= "; break; //$NON-NLS-1$
+            case GT: operator = " > "; break; //$NON-NLS-1$
+            case GE: operator = " >= "; break; //$NON-NLS-1$
+            default: return false;
+            }
+            if (!column(comparison.getLeftExpression(), table, query)) {
+                return false;
+            }
+            query.append(operator);
+            return literal(comparison.getRightExpression(), query);
+        } else if (condition instanceof In) {
+            In in = (In) condition;
+            if (in.isNegated()) {
+                query.append("NOT "); //$NON-NLS-1$
+            }
+            if (!column(in.getLeftExpression(), table, query)) {
+                return false;
+            }
+            query.append(" IN ("); //$NON-NLS-1$
+            for (int i = 0; i < in.getRightExpressions().size(); i++) {
+                if (i > 0) {
+                    query.append(", "); //$NON-NLS-1$
+                }
+                if (!literal(in.getRightExpressions().get(i), query)) {
+                    return false;
+                }
+            }
+            query.append(')');
+            return true;
+        } else if (condition instanceof IsNull) {
+            IsNull isNull = (IsNull) condition;
+            if (!column(isNull.getExpression(), table, query)) {
+                return false;
+            }
+            query.append(isNull.isNegated() ? " IS NOT NULL" : " IS NULL"); //$NON-NLS-1$ //$NON-NLS-2$
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean column(Expression expression, Table table, StringBuilder query) {
+        if (!(expression instanceof ColumnReference)) {
+            return false;
+        }
+        Column column = ((ColumnReference) expression).getMetadataObject();
+        if (column == null || column.getParent() != table) {
+            return false;
+        }
+        query.append(column.getSourceName());
+        return true;
+    }
+
+    private static boolean literal(Expression expression, StringBuilder query) {
+        if (!(expression instanceof Literal) || ((Literal) expression).isMultiValued()) {
+            return false;
+        }
+        Object value = ((Literal) expression).getValue();
+        if (value instanceof String) {
+            query.append('\'').append(((String) value).replace("'", "''")).append('\''); //$NON-NLS-1$ //$NON-NLS-2$
+        } else if (value instanceof Number || value instanceof Boolean) {
+            query.append(value);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void execute() throws TranslatorException {
+        Map<String, Object> params = new HashMap<>();
+        params.put("cacheName", this.connection.getConnectionFactory().getCacheName()); //$NON-NLS-1$
+        params.put("query", this.query); //$NON-NLS-1$
+        try {
+            this.connection.registerScript(SCRIPT_NAME, SCRIPT);
+            int[] result = this.connection.execute(SCRIPT_NAME, params);
+            this.count = result[1];
+            if (result[0] == result[1]) {
+                return;
+            }
+            // entries removed concurrently are not found by the client either
+            Driver.logger.log(Level.FINE, "Server side delete removed " + result[1] + " of " + result[0] //$NON-NLS-1$ //$NON-NLS-2$
+                    + " matched entries, deleting the rest through the client: " + this.query); //$NON-NLS-1$
+        } catch (RuntimeException e) {
+            Driver.logger.log(Level.FINE, "Server side delete failed, deleting through the client: " + this.query, e); //$NON-NLS-1$
+        }
+        this.fallback = this.fallbackFactory.create();
+        this.fallback.execute();
+    }
+
+    @Override
+    public int[] getUpdateCounts() throws DataNotAvailableException, TranslatorException {
+        if (this.fallback != null) {
+            int[] counts = this.fallback.getUpdateCounts();
+            return new int[] { this.count + (counts.length > 0 ? counts[0] : 0) };
+        }
+        return new int[] { this.count };
+    }
+
+    @Override
+    public void close() {
+        if (this.fallback != null) {
+            this.fallback.close();
+        }
+    }
+
+    @Override
+    public void cancel() throws TranslatorException {
+        if (this.fallback != null) {
+            this.fallback.cancel();
+        }
+    }
+}
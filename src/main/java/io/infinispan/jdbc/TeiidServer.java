@@ -17,38 +17,104 @@
  */
 package io.infinispan.jdbc;
 
-import org.teiid.cache.Cache;
-import org.teiid.core.util.LRUCache;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import org.teiid.adminapi.impl.VDBMetaData;
+import org.teiid.cache.CacheFactory;
+import org.teiid.metadata.Schema;
+import org.teiid.metadata.Table;
+import org.teiid.query.metadata.TransformationMetadata;
+import org.teiid.runtime.EmbeddedConfiguration;
 import org.teiid.runtime.EmbeddedServer;
 
+import io.infinispan.data.InfinispanConnectionFactory;
+
 public class TeiidServer extends EmbeddedServer {
+    private EmbeddedConfiguration configuration;
+    private ConcurrentHashMap<String, InfinispanConnectionFactory> factories = new ConcurrentHashMap<>();
 
-    public boolean hasConnectorManagerRepository(String name) {
-        return this.cmr.getConnectorManager(name) != null;
+    @Override
+    public synchronized void start(EmbeddedConfiguration config) {
+        this.configuration = config;
+        super.start(config);
     }
 
-    static class LocalCache<K, V> extends LRUCache<K, V> implements Cache<K, V> {
-        private static final long serialVersionUID = -7894312381042966398L;
-        private String name;
+    public EmbeddedConfiguration getConfiguration() {
+        return this.configuration;
+    }
 
-        public LocalCache(String cacheName, int maxSize) {
-            super(maxSize < 0 ? Integer.MAX_VALUE : maxSize);
-            this.name = cacheName;
+    @Override
+    public void addConnectionFactory(String name, Object connectionFactory) {
+        if (connectionFactory instanceof InfinispanConnectionFactory) {
+            this.factories.put(name, (InfinispanConnectionFactory) connectionFactory);
         }
+        super.addConnectionFactory(name, connectionFactory);
+    }
 
-        @Override
-        public V put(K key, V value, Long ttl) {
-            return put(key, value);
-        }
+    public InfinispanConnectionFactory getConnectionFactory(String name) {
+        return this.factories.get(name);
+    }
+
+    /**
+     * Forgets the connection factory of the name; the engine keeps referencing it until a factory is added
+     * again with the name.
+     * @return the removed factory, null if there was none
+     */
+    public InfinispanConnectionFactory removeConnectionFactory(String name) {
+        return this.factories.remove(name);
+    }
+
+    public Collection<InfinispanConnectionFactory> getConnectionFactories() {
+        return this.factories.values();
+    }
+
+    /**
+     * Adds the connection factory built by the given function unless one is already added with the name;
+     * concurrent callers for the same name wait for the first one and get its factory.
+     */
+    public InfinispanConnectionFactory addConnectionFactoryIfAbsent(String name,
+            Function<String, InfinispanConnectionFactory> builder) {
+        return this.factories.computeIfAbsent(name, n -> {
+            InfinispanConnectionFactory factory = builder.apply(n);
+            super.addConnectionFactory(n, factory);
+            return factory;
+        });
+    }
 
-        @Override
-        public String getName() {
-            return this.name;
+    public boolean hasConnectorManagerRepository(String name) {
+        return this.cmr.getConnectorManager(name) != null;
+    }
+
+    /**
+     * Marks the data of all the tables of the model as modified now, so the engine no longer uses cached
+     * results that were read from them.
+     */
+    public void dataModification(String vdbName, String modelName) {
+        dataModification(this.repo.getLiveVDB(vdbName, "1"), modelName); //$NON-NLS-1$
+    }
+
+    static void dataModification(VDBMetaData vdb, String modelName) {
+        TransformationMetadata metadata = vdb == null ? null : vdb.getAttachment(TransformationMetadata.class);
+        Schema schema = metadata == null ? null : metadata.getMetadataStore().getSchema(modelName);
+        if (schema == null) {
+            return;
         }
+        long now = System.currentTimeMillis();
+        for (Table table : schema.getTables().values()) {
+            table.setLastDataModification(now);
+        }
+    }
 
-        @Override
-        public boolean isTransactional() {
-            return false;
+    /**
+     * @return the engine cache with given name, like "resultset" or "preparedplan", null if not created yet
+     */
+    public ConcurrentLocalCache<?, ?> getCache(String name) {
+        CacheFactory factory = this.configuration == null ? null : this.configuration.getCacheFactory();
+        if (factory instanceof LocalCacheFactory) {
+            return ((LocalCacheFactory) factory).getCache(name);
         }
+        return null;
     }
-}
\ No newline at end of file
+}
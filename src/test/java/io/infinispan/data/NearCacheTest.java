@@ -0,0 +1,135 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.infinispan.client.hotrod.RemoteCache;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+@SuppressWarnings("unchecked")
+public class NearCacheTest {
+
+    private static RemoteCache<Object, Object> remote() {
+        RemoteCache<Object, Object> cache = Mockito.mock(RemoteCache.class);
+        for (String key : Arrays.asList("a", "b", "c")) {
+            Mockito.when(cache.get(key)).thenReturn(key.toUpperCase());
+        }
+        return cache;
+    }
+
+    @Test
+    public void testCounters() {
+        RemoteCache<Object, Object> cache = remote();
+        NearCache nearCache = new NearCache(cache, 10, NearCache.EvictionPolicy.LRU);
+
+        assertEquals("A", nearCache.get("a"));
+        assertEquals("A", nearCache.get("a"));
+        assertEquals(null, nearCache.get("d"));
+        assertEquals(1, nearCache.getHitCount());
+        assertEquals(2, nearCache.getMissCount());
+        Mockito.verify(cache, Mockito.times(1)).get("a");
+
+        Map<Object, Object> values = nearCache.getAll(new HashSet<Object>(Arrays.asList("a", "b")), keys -> {
+            assertEquals(Collections.singleton("b"), keys);
+            return Collections.<Object, Object>singletonMap("b", "B");
+        });
+        assertEquals("B", values.get("b"));
+        assertEquals(2, nearCache.getHitCount());
+        assertEquals(3, nearCache.getMissCount());
+
+        nearCache.invalidate("a");
+        assertEquals(1, nearCache.getInvalidationCount());
+        assertEquals(1, nearCache.size());
+        assertEquals("A", nearCache.get("a"));
+        Mockito.verify(cache, Mockito.times(2)).get("a");
+    }
+
+    @Test
+    public void testLruEviction() {
+        RemoteCache<Object, Object> cache = remote();
+        NearCache nearCache = new NearCache(cache, 2, NearCache.EvictionPolicy.LRU);
+        nearCache.get("a");
+        nearCache.get("b");
+        // a is the most recently used, b is evicted
+        nearCache.get("a");
+        nearCache.get("c");
+        assertEquals(2, nearCache.size());
+        assertEquals(1, nearCache.getEvictionCount());
+
+        nearCache.get("a");
+        Mockito.verify(cache, Mockito.times(1)).get("a");
+        nearCache.get("b");
+        Mockito.verify(cache, Mockito.times(2)).get("b");
+    }
+
+    @Test
+    public void testFifoEviction() {
+        RemoteCache<Object, Object> cache = remote();
+        NearCache nearCache = new NearCache(cache, 2, NearCache.EvictionPolicy.FIFO);
+        nearCache.get("a");
+        nearCache.get("b");
+        // a was loaded first, reading it does not keep it
+        nearCache.get("a");
+        nearCache.get("c");
+        assertEquals(2, nearCache.size());
+        assertEquals(1, nearCache.getEvictionCount());
+
+        nearCache.get("b");
+        Mockito.verify(cache, Mockito.times(1)).get("b");
+        nearCache.get("a");
+        Mockito.verify(cache, Mockito.times(2)).get("a");
+    }
+
+    @Test
+    public void testInvalidationDuringLoad() {
+        RemoteCache<Object, Object> cache = Mockito.mock(RemoteCache.class);
+        NearCache nearCache = new NearCache(cache, 10, NearCache.EvictionPolicy.LRU);
+        // the entry is modified on the server while its old value is on the way
+        Mockito.when(cache.get("a")).thenAnswer(new Answer<Object>() {
+            @Override
+            public Object answer(InvocationOnMock invocation) throws Throwable {
+                nearCache.invalidate("a");
+                return "A";
+            }
+        });
+        assertEquals("A", nearCache.get("a"));
+        assertEquals(0, nearCache.size());
+
+        Set<Object> keys = new HashSet<Object>(Arrays.asList("b"));
+        Map<Object, Object> values = nearCache.getAll(keys, missing -> {
+            nearCache.invalidate("b");
+            return Collections.<Object, Object>singletonMap("b", "B");
+        });
+        assertEquals("B", values.get("b"));
+        assertEquals(0, nearCache.size());
+
+        // without an invalidation the loaded value is kept
+        nearCache.getAll(keys, missing -> Collections.<Object, Object>singletonMap("b", "B"));
+        assertEquals(1, nearCache.size());
+    }
+}
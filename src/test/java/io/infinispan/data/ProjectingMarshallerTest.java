@@ -0,0 +1,193 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.infinispan.protostream.BaseMarshaller;
+import org.infinispan.protostream.RawProtobufMarshaller;
+import org.infinispan.protostream.RawProtobufReader;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.teiid.infinispan.api.InfinispanDocument;
+
+public class ProjectingMarshallerTest {
+
+    private static BaseMarshaller<InfinispanDocument> project(RawProtobufMarshaller<InfinispanDocument> full,
+            BitSet fields) {
+        MarshallerScope previous = new MarshallerScope(Collections.singletonMap("ispn.G1", fields)).enter();
+        try {
+            return ProjectingMarshaller.project(full);
+        } finally {
+            MarshallerScope.exit(previous);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSkipsUnprojectedFields() throws Exception {
+        // reads the tags it is given until the end of the message
+        List<Integer> read = new ArrayList<>();
+        RawProtobufMarshaller<InfinispanDocument> full = mock(RawProtobufMarshaller.class);
+        when(full.getTypeName()).thenReturn("ispn.G1");
+        Mockito.doReturn(InfinispanDocument.class).when(full).getJavaClass();
+        when(full.readFrom(Mockito.any(), Mockito.any(RawProtobufReader.class))).thenAnswer(
+                new Answer<InfinispanDocument>() {
+                    @Override
+                    public InfinispanDocument answer(InvocationOnMock invocation) throws Throwable {
+                        RawProtobufReader in = (RawProtobufReader) invocation.getArguments()[1];
+                        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                            read.add(tag >>> 3);
+                            in.readInt32();
+                        }
+                        return null;
+                    }
+                });
+
+        BitSet fields = new BitSet();
+        fields.set(1);
+        fields.set(3);
+        BaseMarshaller<InfinispanDocument> projected = project(full, fields);
+        assertTrue(projected instanceof ProjectingMarshaller);
+        assertSame(full, ProjectingMarshaller.full(projected));
+
+        // fields 1 to 4, as varints
+        RawProtobufReader in = mock(RawProtobufReader.class);
+        when(in.readTag()).thenReturn(1 << 3, 2 << 3, 3 << 3, 4 << 3, 0);
+        ((ProjectingMarshaller) projected).readFrom(null, in);
+        assertEquals(Arrays.asList(1, 3), read);
+        Mockito.verify(in).skipField(2 << 3);
+        Mockito.verify(in).skipField(4 << 3);
+        Mockito.verify(in, Mockito.times(2)).readInt32();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testNestedMessageDecodedWhole() throws Exception {
+        // reads field 2 as a nested message of varints
+        List<String> read = new ArrayList<>();
+        RawProtobufMarshaller<InfinispanDocument> full = mock(RawProtobufMarshaller.class);
+        when(full.getTypeName()).thenReturn("ispn.G1");
+        Mockito.doReturn(InfinispanDocument.class).when(full).getJavaClass();
+        when(full.readFrom(Mockito.any(), Mockito.any(RawProtobufReader.class))).thenAnswer(
+                new Answer<InfinispanDocument>() {
+                    @Override
+                    public InfinispanDocument answer(InvocationOnMock invocation) throws Throwable {
+                        RawProtobufReader in = (RawProtobufReader) invocation.getArguments()[1];
+                        for (int tag = in.readTag(); tag != 0; tag = in.readTag()) {
+                            if (tag >>> 3 != 2) {
+                                read.add(String.valueOf(tag >>> 3));
+                                in.readInt32();
+                                continue;
+                            }
+                            int oldLimit = in.pushLimit(in.readUInt32());
+                            for (int nested = in.readTag(); nested != 0; nested = in.readTag()) {
+                                read.add("2." + (nested >>> 3));
+                                in.readInt32();
+                            }
+                            in.popLimit(oldLimit);
+                        }
+                        return null;
+                    }
+                });
+
+        BitSet fields = new BitSet();
+        fields.set(1);
+        fields.set(2);
+        ProjectingMarshaller projected = (ProjectingMarshaller) project(full, fields);
+
+        // fields 1, 2 with the nested fields 3 and 4, then 3
+        RawProtobufReader in = mock(RawProtobufReader.class);
+        when(in.readTag()).thenReturn(1 << 3, 2 << 3 | 2, 3 << 3, 4 << 3, 0, 3 << 3, 0);
+        projected.readFrom(null, in);
+        assertEquals(Arrays.asList("1", "2.3", "2.4"), read);
+        Mockito.verify(in).skipField(3 << 3);
+        Mockito.verify(in).pushLimit(Mockito.anyInt());
+        Mockito.verify(in).popLimit(Mockito.anyInt());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testProjectedForTheScope() throws Exception {
+        RawProtobufMarshaller<InfinispanDocument> full = mock(RawProtobufMarshaller.class);
+        when(full.getTypeName()).thenReturn("ispn.G1");
+        Mockito.doReturn(InfinispanDocument.class).when(full).getJavaClass();
+        MarshallerScope scope = new MarshallerScope(Collections.singletonMap("ispn.G1", new BitSet()));
+        TeiidMarshallerProvider provider = new TeiidMarshallerProvider();
+
+        BaseMarshaller<InfinispanDocument> projected;
+        MarshallerScope previous = scope.enter();
+        try {
+            projected = ProjectingMarshaller.project(full);
+            provider.setMarsheller(projected);
+        } finally {
+            MarshallerScope.exit(previous);
+        }
+
+        // the pages read later, on another thread in the scope, are decoded with the projection
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertSame(projected, executor.submit(() -> {
+                MarshallerScope outer = scope.enter();
+                try {
+                    return provider.getMarshaller("ispn.G1");
+                } finally {
+                    MarshallerScope.exit(outer);
+                }
+            }).get());
+            assertSame(full, executor.submit(() -> provider.getMarshaller("ispn.G1")).get());
+        } finally {
+            executor.shutdown();
+        }
+        provider.removeMarsheller(projected);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOtherThreadDecodesAllFields() throws Exception {
+        RawProtobufMarshaller<InfinispanDocument> full = mock(RawProtobufMarshaller.class);
+        when(full.getTypeName()).thenReturn("ispn.G1");
+        Mockito.doReturn(InfinispanDocument.class).when(full).getJavaClass();
+        ProjectingMarshaller projected = new ProjectingMarshaller(full, new BitSet());
+
+        TeiidMarshallerProvider provider = new TeiidMarshallerProvider();
+        provider.setMarsheller(projected);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertSame(projected, provider.getMarshaller("ispn.G1"));
+            assertSame(full, executor.submit(() -> provider.getMarshaller("ispn.G1")).get());
+        } finally {
+            executor.shutdown();
+        }
+        provider.removeMarsheller(projected);
+    }
+}
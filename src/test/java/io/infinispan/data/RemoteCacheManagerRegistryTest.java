@@ -0,0 +1,81 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.client.hotrod.RemoteCacheManager;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class RemoteCacheManagerRegistryTest {
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Test
+    public void testBuildOutsideLock() throws Exception {
+        RemoteCacheManagerRegistry registry = new RemoteCacheManagerRegistry();
+        RemoteCacheManager slow = Mockito.mock(RemoteCacheManager.class);
+        RemoteCacheManager fast = Mockito.mock(RemoteCacheManager.class);
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<RemoteCacheManager> first = executor.submit(() -> registry.acquire(Arrays.<Object>asList("a"), () -> {
+                building.countDown();
+                await(started);
+                return slow;
+            }));
+            building.await();
+            Future<RemoteCacheManager> second = executor.submit(() -> registry.acquire(Arrays.<Object>asList("a"), () -> {
+                throw new AssertionError("built twice");
+            }));
+
+            // another server is not held up by the manager being started
+            assertSame(fast, registry.acquire(Arrays.<Object>asList("b"), () -> fast));
+
+            started.countDown();
+            assertSame(slow, first.get(5, TimeUnit.SECONDS));
+            assertSame(slow, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+
+        registry.release(slow);
+        registry.release(fast);
+        Mockito.verify(fast).stop();
+        Mockito.verify(slow, Mockito.never()).stop();
+        registry.release(slow);
+        Mockito.verify(slow).stop();
+        assertEquals(0, registry.size());
+    }
+}
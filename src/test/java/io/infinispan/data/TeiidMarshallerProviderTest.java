@@ -0,0 +1,104 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.data;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.infinispan.protostream.BaseMarshaller;
+import org.junit.Test;
+import org.teiid.infinispan.api.InfinispanDocument;
+
+public class TeiidMarshallerProviderTest {
+
+    @SuppressWarnings("unchecked")
+    private BaseMarshaller<InfinispanDocument> marshaller(String type) {
+        BaseMarshaller<InfinispanDocument> m = mock(BaseMarshaller.class);
+        when(m.getTypeName()).thenReturn(type);
+        doReturn(InfinispanDocument.class).when(m).getJavaClass();
+        return m;
+    }
+
+    @Test
+    public void testThreadScopedRegistration() throws Exception {
+        TeiidMarshallerProvider provider = new TeiidMarshallerProvider();
+        BaseMarshaller<InfinispanDocument> m1 = marshaller("ispn.G1");
+        BaseMarshaller<InfinispanDocument> m2 = marshaller("ispn.G1");
+
+        provider.setMarsheller(m1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // a parallel execution over the same type does not fail and sees its own marshaller
+            assertSame(m2, executor.submit(() -> {
+                provider.setMarsheller(m2);
+                return provider.getMarshaller("ispn.G1");
+            }).get());
+            assertSame(m1, provider.getMarshaller("ispn.G1"));
+            assertSame(m1, provider.getMarshaller(InfinispanDocument.class));
+
+            executor.submit(() -> provider.removeMarsheller(m2)).get();
+            provider.removeMarsheller(m1);
+            assertNull(provider.getMarshaller("ispn.G1"));
+            assertNull(provider.getMarshaller(InfinispanDocument.class));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testOtherThreadSeesLatest() throws Exception {
+        TeiidMarshallerProvider provider = new TeiidMarshallerProvider();
+        BaseMarshaller<InfinispanDocument> m1 = marshaller("ispn.G1");
+        provider.setMarsheller(m1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            assertSame(m1, executor.submit(() -> provider.getMarshaller("ispn.G1")).get());
+        } finally {
+            executor.shutdown();
+        }
+        provider.removeMarsheller(m1);
+    }
+
+    @Test
+    public void testRemoveFromOtherThread() throws Exception {
+        TeiidMarshallerProvider provider = new TeiidMarshallerProvider();
+        BaseMarshaller<InfinispanDocument> m1 = marshaller("ispn.G1");
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // executed on one thread, closed on another
+            executor.submit(() -> provider.setMarsheller(m1)).get();
+            provider.removeMarsheller(m1);
+            assertNull(executor.submit(() -> provider.getMarshaller("ispn.G1")).get());
+            assertNull(executor.submit(() -> provider.getMarshaller(InfinispanDocument.class)).get());
+
+            // a later execution on that thread gets its own marshaller, not the stale one
+            BaseMarshaller<InfinispanDocument> m2 = marshaller("ispn.G1");
+            provider.setMarsheller(m2);
+            assertSame(m2, executor.submit(() -> provider.getMarshaller("ispn.G1")).get());
+            provider.removeMarsheller(m2);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
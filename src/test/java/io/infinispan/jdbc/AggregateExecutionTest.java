@@ -0,0 +1,123 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.teiid.language.AggregateFunction;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.GroupBy;
+import org.teiid.language.Limit;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.OrderBy;
+import org.teiid.language.Select;
+import org.teiid.language.SortSpecification;
+import org.teiid.language.TableReference;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.RuntimeMetadata;
+import org.teiid.metadata.Table;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.infinispan.hotrod.IckleConversionVisitor;
+import org.teiid.translator.infinispan.hotrod.ProtobufMetadataProcessor;
+
+public class AggregateExecutionTest {
+
+    private static Column column(Table table, String name, int tag, Class<?> type) {
+        Column column = new Column();
+        column.setName(name);
+        column.setNameInSource(name);
+        column.setJavaType(type);
+        column.setProperty(ProtobufMetadataProcessor.TAG, String.valueOf(tag));
+        column.setParent(table);
+        table.addColumn(column);
+        return column;
+    }
+
+    /**
+     * SELECT e2, COUNT(e1) FROM G1 GROUP BY e2 HAVING COUNT(e1) > 1 ORDER BY e2 LIMIT 5, 10
+     */
+    private static Select countByE2() {
+        Table table = new Table();
+        table.setName("G1");
+        table.setProperty(ProtobufMetadataProcessor.MESSAGE_NAME, "ispn.G1");
+        Column e1 = column(table, "e1", 1, Integer.class);
+        Column e2 = column(table, "e2", 2, String.class);
+        NamedTable g1 = new NamedTable("G1", "g0", table);
+
+        ColumnReference e1Ref = new ColumnReference(g1, "e1", e1, Integer.class);
+        ColumnReference e2Ref = new ColumnReference(g1, "e2", e2, String.class);
+        AggregateFunction count = new AggregateFunction(AggregateFunction.COUNT, false,
+                Arrays.<Expression>asList(e1Ref), Integer.class);
+        Select select = new Select(Arrays.asList(new DerivedColumn(null, e2Ref), new DerivedColumn(null, count)),
+                false, Arrays.<TableReference>asList(g1), null, new GroupBy(Arrays.<Expression>asList(e2Ref)),
+                new Comparison(count, new Literal(1, Integer.class), Comparison.Operator.GT),
+                new OrderBy(Arrays.asList(new SortSpecification(SortSpecification.Ordering.ASC, e2Ref))));
+        select.setLimit(new Limit(5, 10));
+        return select;
+    }
+
+    @Test
+    public void testIckle() throws Exception {
+        IckleConversionVisitor visitor = new IckleConversionVisitor(Mockito.mock(RuntimeMetadata.class), false);
+        visitor.append(countByE2());
+        String query = visitor.getQuery();
+
+        assertTrue(query, query.contains("COUNT(g0.e1)"));
+        assertTrue(query, query.contains("FROM ispn.G1 g0"));
+        assertTrue(query, query.contains("GROUP BY g0.e2"));
+        assertTrue(query, query.contains("HAVING COUNT(g0.e1) > 1"));
+        assertTrue(query, query.contains("ORDER BY g0.e2"));
+        // the limit is set on the query, not sent in the Ickle string
+        assertEquals(Integer.valueOf(10), visitor.getRowLimit());
+        assertEquals(Integer.valueOf(5), visitor.getRowOffset());
+    }
+
+    @Test
+    public void testCountStarNotPushed() throws Exception {
+        DriverExecutionFactory factory = new DriverExecutionFactory();
+        assertTrue(factory.supportsAggregatesCount());
+        assertFalse(factory.supportsAggregatesCountStar());
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    @Test
+    public void testConversion() throws Exception {
+        Class<?>[] types = AggregateExecution.aggregateTypes(countByE2());
+        assertEquals(Arrays.asList(null, Integer.class), Arrays.asList(types));
+
+        // Ickle counts as longs
+        ResultSetExecution source = Mockito.mock(ResultSetExecution.class);
+        Mockito.when((List) source.next()).thenReturn(Arrays.asList("a", 3L), (List) null);
+        AggregateExecution execution = new AggregateExecution(source, types);
+        execution.execute();
+        assertEquals(Arrays.asList("a", 3), execution.next());
+        assertNull(execution.next());
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Insert;
+import org.teiid.language.NamedTable;
+import org.teiid.translator.TranslatorException;
+import org.teiid.translator.UpdateExecution;
+
+public class BatchedInsertExecutionTest {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    private static Insert bulkInsert(int rows) {
+        List<List<?>> values = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            values.add(Arrays.asList(i));
+        }
+        Insert insert = new Insert(new NamedTable("G1", null, null), Collections.<ColumnReference>emptyList(), null);
+        insert.setParameterValues(values.iterator());
+        return insert;
+    }
+
+    // the rows of the chunk, which can then still be read from it
+    private static List<List<?>> rows(Insert chunk) {
+        List<List<?>> rows = new ArrayList<>();
+        Iterator<? extends List<?>> values = chunk.getParameterValues();
+        while (values.hasNext()) {
+            rows.add(values.next());
+        }
+        chunk.setParameterValues(rows.iterator());
+        return rows;
+    }
+
+    private static UpdateExecution chunkExecution(Insert chunk, Runnable onExecute, List<Object> written) {
+        return new UpdateExecution() {
+            @Override
+            public void execute() throws TranslatorException {
+                onExecute.run();
+                for (List<?> row : rows(chunk)) {
+                    synchronized (written) {
+                        written.add(row.get(0));
+                    }
+                }
+            }
+
+            @Override
+            public int[] getUpdateCounts() {
+                // a row with an odd value was not written
+                List<List<?>> rows = rows(chunk);
+                int[] counts = new int[rows.size()];
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = ((Integer) rows.get(i).get(0)) % 2 == 0 ? 1 : 0;
+                }
+                return counts;
+            }
+
+            @Override
+            public void close() {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        };
+    }
+
+    @Test
+    public void testChunks() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        AtomicInteger chunks = new AtomicInteger();
+        List<Object> written = new ArrayList<>();
+
+        BatchedInsertExecution execution = new BatchedInsertExecution(bulkInsert(95), null, chunk -> {
+            chunks.incrementAndGet();
+            return chunkExecution(chunk, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }, written);
+        }, this.executor, 10, 3);
+        execution.execute();
+
+        assertEquals(10, chunks.get());
+        assertEquals(95, written.size());
+        assertTrue(maxRunning.get() <= 3);
+        int[] counts = execution.getUpdateCounts();
+        assertEquals(95, counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            // each row keeps the count its chunk reported for it
+            assertEquals(i % 2 == 0 ? 1 : 0, counts[i]);
+        }
+    }
+
+    @Test
+    public void testChunkFailure() throws Exception {
+        List<Object> written = new ArrayList<>();
+        AtomicInteger chunks = new AtomicInteger();
+        BatchedInsertExecution execution = new BatchedInsertExecution(bulkInsert(50), null, chunk -> {
+            if (chunks.incrementAndGet() == 2) {
+                return chunkExecution(chunk, () -> {
+                    throw new IllegalStateException("duplicate key");
+                }, written);
+            }
+            return chunkExecution(chunk, () -> {}, written);
+        }, this.executor, 10, 2);
+        try {
+            execution.execute();
+            fail("expected the chunk failure");
+        } catch (TranslatorException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+    }
+}
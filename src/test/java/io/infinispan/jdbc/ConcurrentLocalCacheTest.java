@@ -0,0 +1,131 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.teiid.cache.Cache;
+import org.teiid.common.buffer.TupleBuffer;
+import org.teiid.dqp.internal.process.CachedResults;
+
+public class ConcurrentLocalCacheTest {
+
+    @Test
+    public void testLRUEviction() {
+        ConcurrentLocalCache<String, String> cache = new ConcurrentLocalCache<>("test", 2);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        assertEquals("1", cache.get("a"));
+        cache.put("c", "3");
+
+        assertEquals(2, cache.size());
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals("3", cache.get("c"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testTtl() throws Exception {
+        ConcurrentLocalCache<String, String> cache = new ConcurrentLocalCache<>("test", 10);
+        cache.put("a", "1", 1L);
+        cache.put("b", "2", null);
+        Thread.sleep(10);
+        assertNull(cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals(1, cache.getExpirationCount());
+    }
+
+    @Test
+    public void testWeightBound() {
+        ConcurrentLocalCache<String, Object> cache = new ConcurrentLocalCache<>("test", 10, 1000, -1,
+                (key, value) -> ((byte[]) value).length);
+        cache.put("a", new byte[400]);
+        cache.put("b", new byte[400]);
+        cache.put("c", new byte[400]);
+        assertTrue(cache.getWeight() <= 1000);
+        assertNull(cache.get("a"));
+
+        // larger than the whole cache, never stored
+        cache.put("d", new byte[2000]);
+        assertNull(cache.get("d"));
+    }
+
+    @Test
+    public void testStriped() {
+        ConcurrentLocalCache<Integer, Integer> cache = new ConcurrentLocalCache<>("test", 1024);
+        for (int i = 0; i < 2048; i++) {
+            cache.put(i, i);
+        }
+        assertTrue(cache.size() <= 1024);
+        assertEquals(cache.size(), cache.keySet().size());
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    @Test
+    public void testCachedResultsWeight() {
+        TupleBuffer buffer = Mockito.mock(TupleBuffer.class);
+        Mockito.when(buffer.getRowCount()).thenReturn(1000);
+        Mockito.doReturn(Arrays.asList(null, null)).when(buffer).getSchema();
+        CachedResults results = Mockito.mock(CachedResults.class);
+        Mockito.when(results.getResults()).thenReturn(buffer);
+
+        // weighed by its tuples, not as a fixed size entry
+        assertTrue(ConcurrentLocalCache.DEFAULT_WEIGHER.weigh(null, results) >= 1000 * 2 * 32);
+        ConcurrentLocalCache<String, Object> cache = new ConcurrentLocalCache<>("test", 10, 100000, -1, null);
+        cache.put("a", results);
+        cache.put("b", results);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testFactoryWeightBound() {
+        TupleBuffer buffer = Mockito.mock(TupleBuffer.class);
+        Mockito.when(buffer.getRowCount()).thenReturn(1000);
+        Mockito.doReturn(Arrays.asList(null, null)).when(buffer).getSchema();
+        CachedResults results = Mockito.mock(CachedResults.class);
+        Mockito.when(results.getResults()).thenReturn(buffer);
+
+        Properties props = new Properties();
+        props.setProperty("resultset.cacheMaxBytes", "150000");
+        props.setProperty("cacheMaxEntries", "10");
+        LocalCacheFactory factory = new LocalCacheFactory(props);
+
+        Cache<String, Object> resultset = factory.get("resultset");
+        Cache<String, Object> plans = factory.get("preparedplan");
+        for (String key : Arrays.asList("a", "b", "c")) {
+            resultset.put(key, results);
+            plans.put(key, results);
+        }
+        // only the result cache is bounded by its estimated size
+        assertEquals(2, factory.getCache("resultset").size());
+        assertTrue(factory.getCache("resultset").getWeight() <= 150000);
+        assertEquals(3, factory.getCache("preparedplan").size());
+    }
+}
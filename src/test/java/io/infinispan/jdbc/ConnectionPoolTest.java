@@ -0,0 +1,90 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.teiid.jdbc.ConnectionImpl;
+
+public class ConnectionPoolTest {
+
+    private AtomicInteger created = new AtomicInteger();
+
+    private ConnectionPool pool(int size, ConnectionImpl physical) {
+        return new ConnectionPool(() -> {
+            created.incrementAndGet();
+            return new PooledConnectionImpl(physical);
+        }, size, 10, 60000, 1);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        ConnectionImpl physical = mock(ConnectionImpl.class);
+        ConnectionPool pool = pool(2, physical);
+
+        Connection c = pool.borrow();
+        assertEquals(1, pool.getActiveCount());
+        c.close();
+        assertTrue(c.isClosed());
+        assertEquals(0, pool.getActiveCount());
+        assertEquals(1, pool.getIdleCount());
+
+        pool.borrow().close();
+        assertEquals(1, created.get());
+        assertEquals(2, pool.getBorrowCount());
+    }
+
+    @Test
+    public void testResetOnReturn() throws Exception {
+        ConnectionImpl physical = mock(ConnectionImpl.class);
+        when(physical.getAutoCommit()).thenReturn(false);
+        ConnectionPool pool = pool(1, physical);
+
+        pool.borrow().close();
+        verify(physical).rollback();
+        verify(physical).setAutoCommit(true);
+    }
+
+    @Test
+    public void testWaitTimeout() throws Exception {
+        ConnectionImpl physical = mock(ConnectionImpl.class);
+        ConnectionPool pool = pool(1, physical);
+
+        Connection c = pool.borrow();
+        try {
+            pool.borrow();
+            fail("expected the pool to be exhausted");
+        } catch (SQLException e) {
+            // expected
+        }
+        assertEquals(1, pool.getWaitCount());
+        assertEquals(1, pool.getTimeoutCount());
+        assertTrue(pool.getMaxWaitNanos() > 0);
+        c.close();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.infinispan.client.hotrod.RemoteCache;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.mockito.stubbing.OngoingStubbing;
+import org.teiid.language.Select;
+import org.teiid.translator.ResultSetExecution;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.data.InfinispanConnectionImpl;
+
+@SuppressWarnings("unchecked")
+public class DistributedResultCacheTest {
+
+    @SuppressWarnings("rawtypes")
+    private ResultSetExecution rows(List<?>... rows) throws Exception {
+        ResultSetExecution execution = Mockito.mock(ResultSetExecution.class);
+        OngoingStubbing<List> stub = Mockito.when((List) execution.next());
+        for (List<?> row : rows) {
+            stub = stub.thenReturn(row);
+        }
+        stub.thenReturn(null);
+        return execution;
+    }
+
+    @Test
+    public void testSharedUntilSourceChanges() throws Exception {
+        RemoteCache<String, Object> results = Mockito.mock(RemoteCache.class);
+        InfinispanConnectionFactory factory = Mockito.mock(InfinispanConnectionFactory.class);
+        Mockito.when(factory.getCacheName()).thenReturn("G1cache");
+        InfinispanConnectionImpl connection = Mockito.mock(InfinispanConnectionImpl.class);
+        Mockito.when(connection.getConnectionFactory()).thenReturn(factory);
+        Mockito.when(connection.getCache("results", true)).thenReturn((RemoteCache) results);
+        Mockito.when(results.get("version:G1cache")).thenReturn(7L);
+        Select command = Mockito.mock(Select.class);
+        DistributedResultCache cache = new DistributedResultCache("results", 1000, 10);
+
+        // miss, the rows are read from the source and stored
+        ResultSetExecution source = rows(Arrays.asList("a"), Arrays.asList("b"));
+        ResultSetExecution execution = cache.wrap(command, source, connection);
+        execution.execute();
+        assertEquals(Arrays.asList("a"), execution.next());
+        assertEquals(Arrays.asList("b"), execution.next());
+        assertNull(execution.next());
+        ArgumentCaptor<String> key = ArgumentCaptor.forClass(String.class);
+        ArgumentCaptor<Object> value = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(results).putAsync(key.capture(), value.capture(), Mockito.eq(1000L),
+                Mockito.eq(TimeUnit.MILLISECONDS));
+        Mockito.verify(factory).addClientListener(Mockito.any(DistributedResultCache.VersionPublisher.class));
+
+        // hit, the source is not read
+        Mockito.when(results.get(key.getValue())).thenReturn(value.getValue());
+        ResultSetExecution unused = Mockito.mock(ResultSetExecution.class);
+        execution = cache.wrap(command, unused, connection);
+        execution.execute();
+        assertEquals(Arrays.asList("a"), execution.next());
+        assertEquals(Arrays.asList("b"), execution.next());
+        assertNull(execution.next());
+        Mockito.verify(unused, Mockito.never()).execute();
+
+        // the source cache was written, the stored rows are stale
+        Mockito.when(results.get("version:G1cache")).thenReturn(8L);
+        source = rows(Arrays.asList("c"));
+        execution = cache.wrap(command, source, connection);
+        execution.execute();
+        assertEquals(Arrays.asList("c"), execution.next());
+        Mockito.verify(source).execute();
+        Mockito.verify(factory, Mockito.times(1)).addClientListener(Mockito.any());
+    }
+
+    @Test
+    public void testOnlyRowTypesRead() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeLong(7L);
+            out.writeObject(new ArrayList<>(Arrays.asList(new ArrayList<>(Arrays.asList(1, "a", new BigDecimal("1.5"),
+                    new Timestamp(0), new byte[] {1}))))));
+        }
+        assertEquals(1, DistributedResultCache.read(bytes.toByteArray(), 7L).size());
+        assertNull(DistributedResultCache.read(bytes.toByteArray(), 8L));
+
+        bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeLong(7L);
+            out.writeObject(new ArrayList<>(Arrays.asList(new HashMap<>())));
+        }
+        assertNull(DistributedResultCache.read(bytes.toByteArray(), 7L));
+    }
+}
@@ -17,18 +17,24 @@
  */
 package io.infinispan.jdbc;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Properties;
 
 import org.junit.Test;
 
+import io.infinispan.data.InfinispanConnectionFactory;
+
 public class DriverTest {
 
     @Test
@@ -52,6 +58,66 @@ public class DriverTest {
 
         assertEquals("value", d.parseURL("jdbc:infinispan://localhost:1234/mycache;prop=value").getProperty("prop"));
 
+        Properties p = d.parseURL("jdbc:infinispan://node1:1234, node2 ,node3:1235/mycache");
+        assertEquals("node1", p.getProperty("host"));
+        assertEquals("1234", p.getProperty("port"));
+        assertEquals("node1:1234;node2:11222;node3:1235", p.getProperty("serverList"));
+        assertEquals("mycache", p.getProperty("cache"));
+
+    }
+
+    @Test
+    public void testCacheList() throws Exception {
+        Driver d = new Driver();
+        Properties p = d.parseURL("jdbc:infinispan://localhost:1234/orders,customers@other:11333,orders@third;"
+                + "orders.schema=orders.ddl;schema=default.ddl");
+        List<Driver.CacheSource> sources = Driver.cacheSources(p);
+        assertEquals(3, sources.size());
+
+        assertEquals("orders", sources.get(0).modelName);
+        assertEquals("orders", sources.get(0).jndiName);
+        assertEquals("localhost", sources.get(0).properties.getProperty("host"));
+        assertEquals("orders.ddl", sources.get(0).properties.getProperty("schema"));
+
+        assertEquals("customers", sources.get(1).modelName);
+        assertEquals("customers@other:11333", sources.get(1).jndiName);
+        assertEquals("customers", sources.get(1).properties.getProperty("cache"));
+        assertEquals("other", sources.get(1).properties.getProperty("host"));
+        assertEquals("11333", sources.get(1).properties.getProperty("port"));
+        assertEquals("default.ddl", sources.get(1).properties.getProperty("schema"));
+
+        assertEquals("orders2", sources.get(2).modelName);
+        assertEquals("orders@third:11222", sources.get(2).jndiName);
+        assertEquals("orders_customers_other_11333_orders_third", Driver.vdbName(p));
+
+        List<Driver.CacheSource> single = Driver.cacheSources(d.parseURL("jdbc:infinispan://localhost:1234/mycache"));
+        assertEquals(1, single.size());
+        assertEquals("ispn", single.get(0).modelName);
+        assertEquals("localhost", single.get(0).sourceName);
+        assertEquals("mycache", single.get(0).jndiName);
+        assertEquals("mycache", Driver.vdbName(d.parseURL("jdbc:infinispan://localhost:1234/mycache")));
+    }
+
+    @Test
+    public void testInvalidNearCache() throws Exception {
+        Properties p = new Properties();
+        p.setProperty("nearCache", "invalidated");
+        p.setProperty("nearCacheEvictionPolicy", "fifo");
+        p.setProperty("nearCacheMaxEntries", "10");
+        Driver.checkNearCache(p);
+
+        for (String[] invalid : new String[][] { { "nearCache", "always" }, { "nearCacheEvictionPolicy", "lfu" },
+                { "nearCacheMaxEntries", "ten" }, { "nearCacheMaxEntries", "0" } }) {
+            Properties q = new Properties();
+            q.putAll(p);
+            q.setProperty(invalid[0], invalid[1]);
+            try {
+                Driver.checkNearCache(q);
+                fail(invalid[0] + "=" + invalid[1]);
+            } catch (SQLException e) {
+                assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid " + invalid[0]));
+            }
+        }
     }
 
     //@Test
@@ -101,4 +167,68 @@ public class DriverTest {
         assertEquals(new Float(1.11), resultSet.getObject(3));
         // server.stop();
     }
+
+    //@Test
+    public void testBatchInsert() throws SQLException {
+        // HotRodTestServer server = new HotRodTestServer(11222);
+        Driver d = new Driver();
+        Connection c = d.connect("jdbc:infinispan://127.0.0.1:11222/default;schema=src/test/resources/tables.ddl;writeBatchSize=10",
+                new Properties());
+        Statement statement = c.createStatement();
+        statement.execute("DELETE FROM G1");
+
+        PreparedStatement ps = c.prepareStatement("insert into G1 (e1, e2, e3) values (?, ?, ?)");
+        for (int i = 0; i < 95; i++) {
+            ps.setInt(1, i);
+            ps.setString(2, String.valueOf(i));
+            ps.setFloat(3, i);
+            ps.addBatch();
+        }
+        int[] counts = ps.executeBatch();
+        assertEquals(95, counts.length);
+        for (int count : counts) {
+            assertEquals(1, count);
+        }
+
+        ResultSet resultSet = statement.executeQuery("SELECT count(*) FROM G1");
+        assertTrue(resultSet.next());
+        assertEquals(95, resultSet.getInt(1));
+        // server.stop();
+    }
+
+    //@Test
+    public void testServerSideDelete() throws Exception {
+        // HotRodTestServer server = new HotRodTestServer(11222);
+        Driver d = new Driver();
+        Connection c = d.connect("jdbc:infinispan://127.0.0.1:11222/default;schema=src/test/resources/ispn.proto",
+                new Properties());
+        Statement statement = c.createStatement();
+        statement.execute("DELETE FROM G1");
+        for (int i = 0; i < 10; i++) {
+            statement.executeUpdate("insert into G1 (e1, e2, e3) values (" + i + ", '" + (i % 2) + "', 1.11)");
+        }
+
+        // the entries are written through Hot Rod, so the server stores their keys encoded
+        InfinispanConnectionFactory factory = new InfinispanConnectionFactory();
+        factory.setRemoteServerList("127.0.0.1:11222");
+        factory.setCacheName("default");
+        try {
+            ServerDeleteExecution execution = new ServerDeleteExecution("SELECT e1 FROM ispn.G1 WHERE e2 = '1'",
+                    factory.getConnection(), () -> {
+                        throw new AssertionError("deleted through the client");
+                    });
+            execution.execute();
+            assertArrayEquals(new int[] {5}, execution.getUpdateCounts());
+        } finally {
+            factory.close();
+        }
+
+        ResultSet resultSet = statement.executeQuery("SELECT count(e1) FROM G1 WHERE e2 = '1'");
+        assertTrue(resultSet.next());
+        assertEquals(0, resultSet.getInt(1));
+        resultSet = statement.executeQuery("SELECT count(e1) FROM G1");
+        assertTrue(resultSet.next());
+        assertEquals(5, resultSet.getInt(1));
+        // server.stop();
+    }
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.teiid.jdbc.ConnectionImpl;
+import org.teiid.jdbc.PreparedStatementImpl;
+import org.teiid.jdbc.RequestOptions;
+import org.teiid.jdbc.StatementCallback;
+import org.teiid.jdbc.TeiidPreparedStatement;
+
+public class InfinispanAsyncConnectionTest {
+    private ConnectionImpl connection = Mockito.mock(ConnectionImpl.class);
+    private PreparedStatementImpl statement = Mockito.mock(PreparedStatementImpl.class);
+    private InfinispanAsyncConnection async = new InfinispanAsyncConnection(this.connection);
+
+    public InfinispanAsyncConnectionTest() throws SQLException {
+        Mockito.doReturn(this.statement).when(this.connection).prepareStatement(Mockito.anyString());
+        Mockito.when(this.statement.unwrap(TeiidPreparedStatement.class)).thenReturn(this.statement);
+    }
+
+    /**
+     * @return the callback the statement was submitted with
+     */
+    private StatementCallback submitted() throws SQLException {
+        ArgumentCaptor<StatementCallback> callback = ArgumentCaptor.forClass(StatementCallback.class);
+        Mockito.verify(this.statement).submitExecute(callback.capture(), Mockito.any(RequestOptions.class));
+        return callback.getValue();
+    }
+
+    @Test
+    public void testQuery() throws Exception {
+        CompletableFuture<List<List<Object>>> rows = this.async.query("SELECT e1, e2 FROM G1 WHERE e1 > ?", 10);
+        Mockito.verify(this.statement).setObject(1, 10);
+        assertFalse(rows.isDone());
+
+        ResultSet rs = Mockito.mock(ResultSet.class);
+        ResultSetMetaData metadata = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(rs.getMetaData()).thenReturn(metadata);
+        Mockito.when(metadata.getColumnCount()).thenReturn(2);
+        Mockito.when(rs.getObject(1)).thenReturn(11, 12);
+        Mockito.when(rs.getObject(2)).thenReturn("a", "b");
+        StatementCallback callback = submitted();
+        callback.onRow(this.statement, rs);
+        callback.onRow(this.statement, rs);
+        callback.onComplete(this.statement);
+
+        assertEquals(Arrays.asList(Arrays.asList(11, "a"), Arrays.asList(12, "b")), rows.get());
+        Mockito.verify(this.statement).close();
+    }
+
+    @Test
+    public void testForEachCount() throws Exception {
+        ResultSet rs = Mockito.mock(ResultSet.class);
+        ResultSetMetaData metadata = Mockito.mock(ResultSetMetaData.class);
+        Mockito.when(rs.getMetaData()).thenReturn(metadata);
+        Mockito.when(metadata.getColumnCount()).thenReturn(1);
+        CompletableFuture<Long> count = this.async.forEach("SELECT e1 FROM G1", row -> {});
+        StatementCallback callback = submitted();
+        for (int i = 0; i < 3; i++) {
+            callback.onRow(this.statement, rs);
+        }
+        callback.onComplete(this.statement);
+        assertEquals(Long.valueOf(3), count.get());
+    }
+
+    @Test
+    public void testUpdateCount() throws Exception {
+        CompletableFuture<Integer> count = this.async.update("DELETE FROM G1 WHERE e1 = ?", 1);
+        // the count is known once the statement completed
+        Mockito.when(this.statement.getUpdateCount()).thenReturn(3);
+        submitted().onComplete(this.statement);
+        assertEquals(Integer.valueOf(3), count.get());
+        Mockito.verify(this.statement).close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        CompletableFuture<Integer> count = this.async.update("DELETE FROM G1");
+        SQLException failure = new SQLException("failed");
+        submitted().onException(this.statement, failure);
+        try {
+            count.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        Mockito.verify(this.statement).close();
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        CompletableFuture<List<List<Object>>> rows = this.async.query("SELECT e1 FROM G1");
+        submitted();
+        rows.cancel(true);
+        Mockito.verify(this.statement).cancel();
+    }
+
+    @Test
+    public void testCloseWhenNotSubmitted() throws Exception {
+        SQLException failure = new SQLException("invalid parameter");
+        Mockito.doThrow(failure).when(this.statement).setObject(1, "x");
+        CompletableFuture<Integer> count = this.async.update("DELETE FROM G1 WHERE e1 = ?", "x");
+        try {
+            count.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(failure, e.getCause());
+        }
+        Mockito.verify(this.statement).close();
+        Mockito.verify(this.statement, Mockito.never()).submitExecute(Mockito.any(StatementCallback.class),
+                Mockito.any(RequestOptions.class));
+    }
+}
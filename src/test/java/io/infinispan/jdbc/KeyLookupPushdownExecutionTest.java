@@ -0,0 +1,199 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.infinispan.client.hotrod.RemoteCache;
+import org.infinispan.client.hotrod.RemoteCacheManager;
+import org.infinispan.protostream.BaseMarshaller;
+import org.infinispan.protostream.SerializationContext;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.teiid.infinispan.api.InfinispanDocument;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Condition;
+import org.teiid.language.DerivedColumn;
+import org.teiid.language.Expression;
+import org.teiid.language.In;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.language.Select;
+import org.teiid.language.TableReference;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.KeyRecord;
+import org.teiid.metadata.Table;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.data.InfinispanConnectionImpl;
+import io.infinispan.data.NearCache;
+
+public class KeyLookupPushdownExecutionTest {
+    private Table table = new Table();
+    private Column e1 = column("e1");
+    private Column e2 = column("e2");
+    private NamedTable g1 = new NamedTable("G1", null, this.table);
+    private InfinispanConnectionImpl connection = Mockito.mock(InfinispanConnectionImpl.class);
+
+    public KeyLookupPushdownExecutionTest() {
+        this.table.setName("G1");
+        KeyRecord pk = new KeyRecord(KeyRecord.Type.Primary);
+        pk.setColumns(Arrays.asList(this.e1));
+        this.table.setPrimaryKey(pk);
+    }
+
+    private Column column(String name) {
+        Column column = new Column();
+        column.setName(name);
+        column.setParent(this.table);
+        this.table.addColumn(column);
+        return column;
+    }
+
+    private ColumnReference ref(Column column) {
+        return new ColumnReference(this.g1, column.getName(), column, String.class);
+    }
+
+    private Select select(Condition where) {
+        List<DerivedColumn> columns = Arrays.asList(new DerivedColumn(null, ref(this.e1)),
+                new DerivedColumn(null, ref(this.e2)));
+        return new Select(columns, false, Arrays.<TableReference>asList(this.g1), where, null, null, null);
+    }
+
+    @Test
+    public void testKeyShapes() {
+        assertNotNull(KeyLookupPushdownExecution.create(
+                select(new Comparison(ref(this.e1), new Literal(1, Integer.class), Comparison.Operator.EQ)), null,
+                this.connection));
+        assertNotNull(KeyLookupPushdownExecution.create(
+                select(new Comparison(new Literal("a", String.class), ref(this.e1), Comparison.Operator.EQ)), null,
+                this.connection));
+        assertNotNull(KeyLookupPushdownExecution.create(select(new In(ref(this.e1),
+                Arrays.<Expression>asList(new Literal(1, Integer.class), new Literal(2, Integer.class)), false)),
+                null, this.connection));
+    }
+
+    @Test
+    public void testOtherShapes() {
+        // not the primary key
+        assertNull(KeyLookupPushdownExecution.create(
+                select(new Comparison(ref(this.e2), new Literal(1, Integer.class), Comparison.Operator.EQ)), null,
+                this.connection));
+        // not an equality
+        assertNull(KeyLookupPushdownExecution.create(
+                select(new Comparison(ref(this.e1), new Literal(1, Integer.class), Comparison.Operator.GT)), null,
+                this.connection));
+        // NOT IN
+        assertNull(KeyLookupPushdownExecution.create(select(new In(ref(this.e1),
+                Arrays.<Expression>asList(new Literal(1, Integer.class)), true)), null, this.connection));
+        // no criteria
+        assertNull(KeyLookupPushdownExecution.create(select(null), null, this.connection));
+        // not a connection of the driver
+        assertNull(KeyLookupPushdownExecution.create(
+                select(new Comparison(ref(this.e1), new Literal(1, Integer.class), Comparison.Operator.EQ)), null,
+                new Object()));
+    }
+
+    private static InfinispanDocument document(Object e1, Object e2) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("e1", e1);
+        properties.put("e2", e2);
+        InfinispanDocument document = Mockito.mock(InfinispanDocument.class);
+        Mockito.when(document.getProperties()).thenReturn(properties);
+        return document;
+    }
+
+    @SuppressWarnings("unchecked")
+    private KeyLookupPushdownExecution lookup(InfinispanConnectionImpl connection, Object... keys) {
+        BaseMarshaller<InfinispanDocument> marshaller = Mockito.mock(BaseMarshaller.class);
+        Mockito.when(marshaller.getTypeName()).thenReturn("pm1.G1");
+        Mockito.doReturn(InfinispanDocument.class).when(marshaller).getJavaClass();
+        // projects e2 before e1
+        return new KeyLookupPushdownExecution(this.table, Arrays.asList(this.e2, this.e1),
+                new LinkedHashSet<>(Arrays.asList(keys)), null, connection) {
+            @Override
+            BaseMarshaller<InfinispanDocument> getMarshaller() {
+                return marshaller;
+            }
+
+            @Override
+            String getAttributeName(Column column) {
+                return column.getName();
+            }
+        };
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    @Test
+    public void testLookupThroughNearCache() throws Exception {
+        RemoteCache<Object, Object> remote = Mockito.mock(RemoteCache.class);
+        RemoteCacheManager manager = Mockito.mock(RemoteCacheManager.class);
+        Mockito.when(manager.getCache("G1cache")).thenReturn((RemoteCache) remote);
+        NearCache nearCache = new NearCache(remote, 10, NearCache.EvictionPolicy.LRU);
+        InfinispanConnectionFactory factory = Mockito.mock(InfinispanConnectionFactory.class);
+        Mockito.when(factory.getNearCache()).thenReturn(nearCache);
+        InfinispanConnectionImpl connection = new InfinispanConnectionImpl(manager, "G1cache",
+                Mockito.mock(SerializationContext.class), factory, null);
+
+        Map<Object, Object> loaded = new HashMap<>();
+        loaded.put(1, document(1, "a"));
+        loaded.put(2, document(2, "b"));
+        Mockito.when(remote.getAll(Mockito.anySet())).thenReturn(loaded);
+
+        // misses, the rows come from the server in key order with the projected columns
+        KeyLookupPushdownExecution execution = lookup(connection, 2, 1, 3);
+        execution.execute();
+        assertEquals(Arrays.asList("b", 2), execution.next());
+        assertEquals(Arrays.asList("a", 1), execution.next());
+        assertNull(execution.next());
+        Mockito.verify(remote).getAll(new LinkedHashSet<Object>(Arrays.asList(1, 2, 3)));
+
+        // hits, the server is not called again
+        execution = lookup(connection, 1);
+        execution.execute();
+        assertEquals(Arrays.asList("a", 1), execution.next());
+        assertNull(execution.next());
+        execution = lookup(connection, 1, 2);
+        execution.execute();
+        assertEquals(Arrays.asList("a", 1), execution.next());
+        assertEquals(Arrays.asList("b", 2), execution.next());
+        Mockito.verify(remote, Mockito.times(1)).getAll(Mockito.anySet());
+        Mockito.verify(remote, Mockito.never()).get(Mockito.any());
+
+        // a single key miss is a get
+        Mockito.when(remote.get(4)).thenReturn(document(4, "d"));
+        execution = lookup(connection, 4);
+        execution.execute();
+        assertEquals(Arrays.asList("d", 4), execution.next());
+        execution = lookup(connection, 5);
+        execution.execute();
+        assertNull(execution.next());
+        Mockito.verify(remote).get(4);
+        Mockito.verify(remote).get(5);
+    }
+}
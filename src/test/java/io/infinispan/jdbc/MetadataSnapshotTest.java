@@ -0,0 +1,67 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.teiid.adminapi.Admin;
+import org.teiid.infinispan.api.ProtobufResource;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.data.InfinispanConnectionImpl;
+import io.infinispan.jdbc.Driver.CacheSource;
+
+public class MetadataSnapshotTest {
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File dir = Files.createTempDirectory("snapshot").toFile();
+        TeiidServer server = Mockito.mock(TeiidServer.class);
+        Admin admin = Mockito.mock(Admin.class);
+        InfinispanConnectionFactory factory = Mockito.mock(InfinispanConnectionFactory.class);
+        InfinispanConnectionImpl connection = Mockito.mock(InfinispanConnectionImpl.class);
+        Mockito.when(server.getAdmin()).thenReturn(admin);
+        Mockito.when(server.getConnectionFactory("ispn")).thenReturn(factory);
+        Mockito.when(factory.getConnection()).thenReturn(connection);
+        Mockito.when(factory.getProtobufFiles()).thenReturn(Collections.singletonMap("test.proto", "message G1 {}"));
+        Mockito.when(admin.getSchema("ispn", "1", "ispn", null, null)).thenReturn("CREATE FOREIGN TABLE G1 (e1 integer);");
+        List<CacheSource> sources = Arrays.asList(new CacheSource("ispn", "localhost", "ispn", new Properties()));
+
+        MetadataSnapshot snapshot = new MetadataSnapshot(dir, "ispn");
+        assertNull(snapshot.load("abc", sources, server));
+        snapshot.save("abc", "ispn", sources, server);
+
+        assertNull(snapshot.load("def", sources, server));
+        assertEquals(Arrays.asList("CREATE FOREIGN TABLE G1 (e1 integer);"), snapshot.load("abc", sources, server));
+        ArgumentCaptor<ProtobufResource> protobuf = ArgumentCaptor.forClass(ProtobufResource.class);
+        Mockito.verify(connection).registerProtobufFile(protobuf.capture());
+        assertEquals("test.proto", protobuf.getValue().getIdentifier());
+        assertEquals("message G1 {}", protobuf.getValue().getContents());
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+import org.teiid.translator.ResultSetExecution;
+import org.teiid.translator.TranslatorException;
+
+import io.infinispan.data.MarshallerScope;
+
+public class PrefetchingExecutionTest {
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        this.executor.shutdownNow();
+    }
+
+    static class CountingExecution implements ResultSetExecution {
+        final int rows;
+        final int failAt;
+        int current;
+
+        CountingExecution(int rows, int failAt) {
+            this.rows = rows;
+            this.failAt = failAt;
+        }
+
+        @Override
+        public void execute() {
+        }
+
+        @Override
+        public List<?> next() throws TranslatorException {
+            if (this.current == this.failAt) {
+                throw new TranslatorException("failed");
+            }
+            return this.current < this.rows ? Arrays.asList(this.current++) : null;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    }
+
+    @Test
+    public void testAllRowsInOrder() throws Exception {
+        PrefetchingExecution execution = new PrefetchingExecution(new CountingExecution(1000, -1), this.executor, 10);
+        execution.execute();
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(Arrays.asList(i), execution.next());
+        }
+        assertNull(execution.next());
+        assertNull(execution.next());
+        execution.close();
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        PrefetchingExecution execution = new PrefetchingExecution(new CountingExecution(1000, 5), this.executor, 10);
+        execution.execute();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Arrays.asList(i), execution.next());
+        }
+        try {
+            execution.next();
+            fail("expected the failure of the producer");
+        } catch (TranslatorException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        execution.close();
+    }
+
+    @Test
+    public void testCloseBeforeEnd() throws Exception {
+        PrefetchingExecution execution = new PrefetchingExecution(new CountingExecution(Integer.MAX_VALUE, -1), this.executor, 10);
+        execution.execute();
+        assertEquals(Arrays.asList(0), execution.next());
+        execution.close();
+    }
+
+    @Test
+    public void testProducerInExecutionScope() throws Exception {
+        MarshallerScope scope = new MarshallerScope();
+        List<MarshallerScope> seen = new CopyOnWriteArrayList<>();
+        CountingExecution source = new CountingExecution(3, -1) {
+            @Override
+            public List<?> next() throws TranslatorException {
+                seen.add(MarshallerScope.current());
+                return super.next();
+            }
+        };
+        PrefetchingExecution execution = new PrefetchingExecution(new ScopedExecution(source, scope), this.executor, 10);
+        execution.execute();
+        assertEquals(Arrays.asList(0), execution.next());
+        assertEquals(Arrays.asList(1), execution.next());
+        assertEquals(Arrays.asList(2), execution.next());
+        assertNull(execution.next());
+        execution.close();
+        // the rows were read on a worker thread with the marshallers of the execution
+        assertEquals(Arrays.asList(scope, scope, scope, scope), seen);
+    }
+}
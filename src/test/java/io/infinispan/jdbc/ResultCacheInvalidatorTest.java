@@ -0,0 +1,109 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.teiid.adminapi.impl.VDBMetaData;
+import org.teiid.metadata.MetadataStore;
+import org.teiid.metadata.Schema;
+import org.teiid.metadata.Table;
+import org.teiid.query.metadata.TransformationMetadata;
+
+public class ResultCacheInvalidatorTest {
+    private Table table;
+    private Table other;
+    private TeiidServer server;
+
+    @Before
+    public void setup() {
+        this.table = new Table();
+        this.table.setName("G1");
+        Schema schema = new Schema();
+        schema.setName("ispn");
+        schema.addTable(this.table);
+
+        this.other = new Table();
+        this.other.setName("G2");
+        Schema otherSchema = new Schema();
+        otherSchema.setName("other");
+        otherSchema.addTable(this.other);
+
+        MetadataStore store = new MetadataStore();
+        store.addSchema(schema);
+        store.addSchema(otherSchema);
+        TransformationMetadata metadata = Mockito.mock(TransformationMetadata.class);
+        Mockito.when(metadata.getMetadataStore()).thenReturn(store);
+        final VDBMetaData vdb = new VDBMetaData();
+        vdb.addAttchment(TransformationMetadata.class, metadata);
+
+        // the live vdb lookup needs a deployed vdb, the tables are marked the same way
+        this.server = Mockito.mock(TeiidServer.class);
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                TeiidServer.dataModification(vdb, (String) invocation.getArguments()[1]);
+                return null;
+            }
+        }).when(this.server).dataModification(Mockito.eq("vdb"), Mockito.anyString());
+    }
+
+    @Test
+    public void testListenerMarksModification() {
+        ResultCacheInvalidator invalidator = new ResultCacheInvalidator(this.server, "vdb", "ispn");
+
+        invalidator.entryCreated(null);
+        assertModified();
+        invalidator.entryModified(null);
+        assertModified();
+        invalidator.entryRemoved(null);
+        assertModified();
+        invalidator.entryExpired(null);
+        assertModified();
+        invalidator.failover(null);
+        assertModified();
+
+        Mockito.verify(this.server, Mockito.times(5)).dataModification("vdb", "ispn");
+        // the tables of other models keep their cached results
+        assertEquals(0, this.other.getLastDataModification());
+    }
+
+    @Test
+    public void testUnknownModel() {
+        ResultCacheInvalidator invalidator = new ResultCacheInvalidator(this.server, "vdb", "missing");
+        invalidator.entryModified(null);
+        assertEquals(0, this.table.getLastDataModification());
+
+        // not deployed yet
+        TeiidServer.dataModification(null, "ispn");
+        assertEquals(0, this.table.getLastDataModification());
+    }
+
+    private void assertModified() {
+        long before = System.currentTimeMillis();
+        assertTrue(this.table.getLastDataModification() > 0);
+        assertTrue(this.table.getLastDataModification() <= before);
+        this.table.setLastDataModification(0);
+    }
+}
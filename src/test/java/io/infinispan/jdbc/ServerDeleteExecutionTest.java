@@ -0,0 +1,116 @@
+/*
+ * Copyright Red Hat, Inc. and/or its affiliates
+ * and other contributors as indicated by the @author tags and
+ * the COPYRIGHT.txt file distributed with this work.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.infinispan.jdbc;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.infinispan.client.hotrod.exceptions.HotRodClientException;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.teiid.language.AndOr;
+import org.teiid.language.ColumnReference;
+import org.teiid.language.Comparison;
+import org.teiid.language.Delete;
+import org.teiid.language.Expression;
+import org.teiid.language.In;
+import org.teiid.language.Literal;
+import org.teiid.language.NamedTable;
+import org.teiid.metadata.Column;
+import org.teiid.metadata.KeyRecord;
+import org.teiid.metadata.Table;
+import org.teiid.translator.UpdateExecution;
+
+import io.infinispan.data.InfinispanConnectionFactory;
+import io.infinispan.data.InfinispanConnectionImpl;
+
+public class ServerDeleteExecutionTest {
+    private Table table = new Table();
+    private Column e1 = column("e1");
+    private Column e2 = column("e2");
+    private NamedTable g1 = new NamedTable("G1", null, this.table);
+
+    public ServerDeleteExecutionTest() {
+        this.table.setName("G1");
+        this.table.setNameInSource("pm1.G1");
+        KeyRecord pk = new KeyRecord(KeyRecord.Type.Primary);
+        pk.setColumns(Arrays.asList(this.e1));
+        this.table.setPrimaryKey(pk);
+    }
+
+    private Column column(String name) {
+        Column column = new Column();
+        column.setName(name);
+        column.setParent(this.table);
+        this.table.addColumn(column);
+        return column;
+    }
+
+    private ColumnReference ref(Column column) {
+        return new ColumnReference(this.g1, column.getName(), column, String.class);
+    }
+
+    @Test
+    public void testKeyQuery() {
+        assertEquals("SELECT e1 FROM pm1.G1", ServerDeleteExecution.keyQuery(new Delete(this.g1, null)));
+        assertEquals("SELECT e1 FROM pm1.G1 WHERE (e2 = 'it''s') AND (e1 IN (1, 2))",
+                ServerDeleteExecution.keyQuery(new Delete(this.g1, new AndOr(
+                        new Comparison(ref(this.e2), new Literal("it's", String.class), Comparison.Operator.EQ),
+                        new In(ref(this.e1), Arrays.<Expression>asList(new Literal(1, Integer.class),
+                                new Literal(2, Integer.class)), false),
+                        AndOr.Operator.AND))));
+        assertNull(ServerDeleteExecution.keyQuery(new Delete(this.g1, new AndOr(
+                new Comparison(ref(this.e2), new Literal("a", String.class), Comparison.Operator.EQ),
+                new Comparison(ref(this.e1), new Literal(1, Integer.class), Comparison.Operator.EQ),
+                AndOr.Operator.OR))));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFallback() throws Exception {
+        InfinispanConnectionFactory factory = Mockito.mock(InfinispanConnectionFactory.class);
+        InfinispanConnectionImpl connection = Mockito.mock(InfinispanConnectionImpl.class);
+        Mockito.when(connection.getConnectionFactory()).thenReturn(factory);
+        Mockito.when(connection.execute(Mockito.eq(ServerDeleteExecution.SCRIPT_NAME), Mockito.any(Map.class)))
+                .thenReturn(new int[] {3, 3}).thenReturn(new int[] {3, 1})
+                .thenThrow(new HotRodClientException("unauthorized"));
+
+        ServerDeleteExecution execution = new ServerDeleteExecution("SELECT e1 FROM pm1.G1", connection, null);
+        execution.execute();
+        assertArrayEquals(new int[] {3}, execution.getUpdateCounts());
+
+        // the server did not remove every entry it matched
+        UpdateExecution rest = Mockito.mock(UpdateExecution.class);
+        Mockito.when(rest.getUpdateCounts()).thenReturn(new int[] {2});
+        execution = new ServerDeleteExecution("SELECT e1 FROM pm1.G1", connection, () -> rest);
+        execution.execute();
+        Mockito.verify(rest).execute();
+        assertArrayEquals(new int[] {3}, execution.getUpdateCounts());
+
+        UpdateExecution fallback = Mockito.mock(UpdateExecution.class);
+        Mockito.when(fallback.getUpdateCounts()).thenReturn(new int[] {2});
+        execution = new ServerDeleteExecution("SELECT e1 FROM pm1.G1", connection, () -> fallback);
+        execution.execute();
+        Mockito.verify(fallback).execute();
+        assertArrayEquals(new int[] {2}, execution.getUpdateCounts());
+    }
+}